@@ -96,6 +96,7 @@ public class AcServer extends CoapServer {
 	@Override
 	public void destroy() {
 		manager.stopAllApps();
+		manager.destroy();
 		super.destroy();
 	}
 
@@ -51,7 +51,7 @@ public class AcShell extends CoapServer {
 		this.name = name;
 	}
 	
-	private void execute() {
+	void execute() {
 		File file = new File(path);
 	    String code = Utils.readFile(file);
 	    
@@ -152,7 +152,8 @@ public class AcShell extends CoapServer {
 			);
 	}
 	
-	private static class OneTimeJavaScriptApp extends JavaScriptApp {
+	// public, so that JavaScript can set the handlers of "app.root"
+	public static class OneTimeJavaScriptApp extends JavaScriptApp {
 		
 		private OneTimeJavaScriptApp(AppConfig appcfg) {
 			super(null, appcfg);
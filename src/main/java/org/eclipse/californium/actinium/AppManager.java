@@ -21,12 +21,21 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.eclipse.californium.actinium.cfg.AppConfig;
 import org.eclipse.californium.actinium.cfg.AppType;
 import org.eclipse.californium.actinium.cfg.Config;
+import org.eclipse.californium.actinium.jscoap.ResponseCache;
+import org.eclipse.californium.actinium.jscoap.Sender;
 import org.eclipse.californium.actinium.plugnplay.AbstractApp;
+import org.eclipse.californium.actinium.plugnplay.AppThreadFactory;
+import org.eclipse.californium.actinium.plugnplay.CodeCache;
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer;
 import org.eclipse.californium.actinium.plugnplay.JavaScriptApp;
+import org.eclipse.californium.actinium.plugnplay.JavaScriptRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,12 +93,39 @@ public class AppManager {
 	// StatsResource, which holds stats about all apps
 	private StatsResource statsresource; // possibly null in the beginning
 	
+	// creates the threads that execute the apps
+	private final AppThreadFactory threadFactory;
+	
+	// schedules the timeouts and intervals of all apps
+	private final HashedWheelTimer timer;
+	
+	// the JavaScript engine of the apps with shared_engine, created on first use
+	private JavaScriptRuntime runtime;
+	
+	// the persistent cache of compiled code, created on first use
+	private CodeCache codeCache;
+	private boolean codeCacheCreated;
+	
+	// executes the suspendable tasks of apps, created on first use
+	private ExecutorService taskExecutor;
+	
+	// the endpoints for outbound requests of apps, created on first use
+	private ClientEndpoints clientEndpoints;
+	
+	// the cache for responses to GET requests of apps or null
+	private final ResponseCache responseCache;
+	
 	/**
 	 * Contructs an AppManager with the specified properties.
 	 * @param config the app server's config
 	 */
 	public AppManager(Config config) {
 		this.config = config;
+		this.threadFactory = new AppThreadFactory("JavaScript-");
+		this.timer = new HashedWheelTimer("AppTimer", config.getInt(Config.TIMER_TICK), 512, config.getInt(Config.TIMER_THREADS));
+		int cacheSize = config.getInt(Config.CLIENT_CACHE_SIZE);
+		this.responseCache = cacheSize > 0 ? new ResponseCache(cacheSize * 1024L) : null;
+		Sender.setResponseCache(responseCache);
 	}
 
 	/**
@@ -101,6 +137,77 @@ public class AppManager {
 		return config;
 	}
 	
+	/**
+	 * Returns the factory for the threads that execute the apps.
+	 * 
+	 * @return the thread factory
+	 */
+	public AppThreadFactory getThreadFactory() {
+		return threadFactory;
+	}
+	
+	/**
+	 * Returns the timer, that all apps share for their timeouts and intervals.
+	 * 
+	 * @return the timer
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Returns the runtime with the JavaScript engine, that the apps with
+	 * shared_engine share. The runtime is created on first use. If enabled in
+	 * the config, it stores the compiled code in the persistent code cache.
+	 * 
+	 * @return the JavaScript runtime
+	 */
+	public synchronized JavaScriptRuntime getJavaScriptRuntime() {
+		if (runtime == null) {
+			runtime = new JavaScriptRuntime(getCodeCache());
+		}
+		return runtime;
+	}
+	
+	/**
+	 * Returns the persistent cache of compiled code, that all engines use.
+	 * 
+	 * @return the code cache or null, if disabled in the config
+	 */
+	public synchronized CodeCache getCodeCache() {
+		if (!codeCacheCreated) {
+			int size = config.getInt(Config.CODE_CACHE_SIZE);
+			if (size > 0) {
+				codeCache = new CodeCache(new File(config.getProperty(Config.CODE_CACHE_PATH)), size * 1024L);
+			}
+			codeCacheCreated = true;
+		}
+		return codeCache;
+	}
+	
+	/**
+	 * Returns the endpoints for outbound requests of the apps. They are
+	 * created on first use. Without client endpoints in the config, apps send
+	 * their requests over the default endpoint.
+	 * 
+	 * @return the client endpoints
+	 */
+	public synchronized ClientEndpoints getClientEndpoints() {
+		if (clientEndpoints == null) {
+			clientEndpoints = new ClientEndpoints(config.getInt(Config.CLIENT_ENDPOINTS), config.getInt(Config.CLIENT_THREADS));
+		}
+		return clientEndpoints;
+	}
+	
+	/**
+	 * Returns the cache for the responses to GET requests of the apps.
+	 * 
+	 * @return the cache or null, if disabled
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+	
 	/**
 	 * Set the AppResource
 	 * @param appersource the AppResource
@@ -124,6 +231,23 @@ public class AppManager {
 		appresource.stopApps();
 	}
 
+	/**
+	 * Releases the resources shared by the apps. Must be called after all apps
+	 * have been stopped.
+	 */
+	public synchronized void destroy() {
+		timer.stop();
+		if (taskExecutor != null) {
+			taskExecutor.shutdownNow();
+		}
+		if (clientEndpoints != null) {
+			clientEndpoints.destroy();
+		}
+		if (responseCache != null && Sender.getResponseCache() == responseCache) {
+			Sender.setResponseCache(null);
+		}
+	}
+
 	/**
 	 * Scans the folder for app configs for configs, loads them into AppConfigs
 	 * and creates the apps.
@@ -187,6 +311,49 @@ public class AppManager {
 		appresource.restartAppsByLibraryName(libname);
 	}
 
+	/**
+	 * Records, that the specified app requires the specified library.
+	 * 
+	 * @param app the app
+	 * @param libname the name of the library
+	 */
+	public void addDependency(AbstractApp app, String libname) {
+		if (appresource!=null) appresource.addDependency(app, libname);
+	}
+
+	/**
+	 * Forgets all libraries the specified app requires.
+	 * 
+	 * @param app the app
+	 */
+	public void clearDependencies(AbstractApp app) {
+		if (appresource!=null) appresource.clearDependencies(app);
+	}
+
+	/**
+	 * Returns the executor for the suspendable tasks of apps.
+	 * 
+	 * @return the executor
+	 */
+	public synchronized Executor getTaskExecutor() {
+		if (taskExecutor == null) {
+			taskExecutor = Executors.newCachedThreadPool(new AppThreadFactory("JavaScript-task-"));
+		}
+		return taskExecutor;
+	}
+
+	/**
+	 * Removes the compiled code of the specified library, e.g., because the
+	 * library has been updated or deleted.
+	 * 
+	 * @param libname the name of the library
+	 */
+	public synchronized void invalidateLibrary(String libname) {
+		if (runtime != null) {
+			runtime.invalidateModule(libname);
+		}
+	}
+
 	/**
 	 * Stops and deletes all availables instances of the specified app int
 	 * AppResource. This method is called, when an app has been deleted.
@@ -291,10 +458,8 @@ public class AppManager {
 			throw new IllegalArgumentException("The name may only contain alpha-numeric characters, dashes and underscores.");
 
 		}
-		for (String nm:appresource.getAppsNames()) {
-			if (nm.equals(name)) {
-				throw new IllegalArgumentException("The name "+name+" is already in use for an app. Please specify a new name");
-			}
+		if (appresource.getApp(name)!=null) {
+			throw new IllegalArgumentException("The name "+name+" is already in use for an app. Please specify a new name");
 		}
 	}
 
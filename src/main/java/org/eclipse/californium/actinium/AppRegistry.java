@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.californium.actinium.cfg.AppConfig;
+import org.eclipse.californium.actinium.plugnplay.AbstractApp;
+
+/**
+ * AppRegistry holds all instances of apps, indexed by their instance name, by
+ * the name of their app (code) and by the libraries they require. All lookups
+ * take constant time and the registry may be changed and read concurrently.
+ */
+public class AppRegistry {
+
+	private final ConcurrentMap<String, AbstractApp> byName = new ConcurrentHashMap<String, AbstractApp>();
+	private final ConcurrentMap<String, Set<AbstractApp>> byAppName = new ConcurrentHashMap<String, Set<AbstractApp>>();
+	private final ConcurrentMap<String, Set<AbstractApp>> byLibrary = new ConcurrentHashMap<String, Set<AbstractApp>>();
+	// the app name and libraries, under which an instance is indexed
+	private final ConcurrentMap<AbstractApp, String> appNames = new ConcurrentHashMap<AbstractApp, String>();
+	private final ConcurrentMap<AbstractApp, Set<String>> libraries = new ConcurrentHashMap<AbstractApp, Set<String>>();
+
+	/**
+	 * Adds the specified instance, unless its name is already in use.
+	 *
+	 * @param app the instance
+	 * @return true, if added, false, if the name is in use
+	 */
+	public boolean add(AbstractApp app) {
+		if (byName.putIfAbsent(app.getName(), app) != null) {
+			return false;
+		}
+		updateAppName(app);
+		return true;
+	}
+
+	/**
+	 * Removes the specified instance.
+	 *
+	 * @param app the instance
+	 */
+	public void remove(AbstractApp app) {
+		if (byName.remove(app.getName(), app)) {
+			String appName = appNames.remove(app);
+			if (appName != null) {
+				removeFrom(byAppName, appName, app);
+			}
+			removeDependencies(app);
+		}
+	}
+
+	/**
+	 * Indexes the specified instance by the app name in its config again,
+	 * e.g., after the config has changed.
+	 *
+	 * @param app the instance
+	 */
+	public void updateAppName(AbstractApp app) {
+		String appName = app.getConfig().getProperty(AppConfig.APP);
+		String previous = appName == null ? appNames.remove(app) : appNames.put(app, appName);
+		if (previous != null && !previous.equals(appName)) {
+			removeFrom(byAppName, previous, app);
+		}
+		if (appName != null) {
+			addTo(byAppName, appName, app);
+		}
+		if (!byName.containsKey(app.getName())) {
+			// raced with remove()
+			appNames.remove(app);
+			if (appName != null) {
+				removeFrom(byAppName, appName, app);
+			}
+		}
+	}
+
+	/**
+	 * Records, that the specified instance requires the specified library.
+	 * Instances, that are not registered, e.g., replicas, are ignored.
+	 *
+	 * @param app the instance
+	 * @param library the name of the library
+	 */
+	public void addDependency(AbstractApp app, String library) {
+		if (byName.get(app.getName()) != app) {
+			return;
+		}
+		libraries.computeIfAbsent(app, key -> ConcurrentHashMap.<String> newKeySet()).add(library);
+		addTo(byLibrary, library, app);
+	}
+
+	/**
+	 * Removes all libraries of the specified instance, e.g., before it is
+	 * executed again.
+	 *
+	 * @param app the instance
+	 */
+	public void removeDependencies(AbstractApp app) {
+		Set<String> libs = libraries.remove(app);
+		if (libs != null) {
+			for (String library : libs) {
+				removeFrom(byLibrary, library, app);
+			}
+		}
+	}
+
+	/**
+	 * Returns the instance with the specified name.
+	 *
+	 * @param name the instance name
+	 * @return the instance or null
+	 */
+	public AbstractApp get(String name) {
+		return name == null ? null : byName.get(name);
+	}
+
+	/**
+	 * Returns all instances.
+	 *
+	 * @return a view of all instances
+	 */
+	public Collection<AbstractApp> getAll() {
+		return Collections.unmodifiableCollection(byName.values());
+	}
+
+	/**
+	 * Returns the names of all instances.
+	 *
+	 * @return a view of the names
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(byName.keySet());
+	}
+
+	/**
+	 * Returns the instances of the app with the specified name.
+	 *
+	 * @param appName the name of the app
+	 * @return a view of the instances
+	 */
+	public Set<AbstractApp> getByAppName(String appName) {
+		return view(byAppName.get(appName));
+	}
+
+	/**
+	 * Returns the instances, that require the specified library.
+	 *
+	 * @param library the name of the library
+	 * @return a view of the instances
+	 */
+	public Set<AbstractApp> getByLibrary(String library) {
+		return view(byLibrary.get(library));
+	}
+
+	/**
+	 * Returns the number of instances.
+	 *
+	 * @return the number of instances
+	 */
+	public int size() {
+		return byName.size();
+	}
+
+	private static Set<AbstractApp> view(Set<AbstractApp> apps) {
+		return apps == null ? Collections.<AbstractApp> emptySet() : Collections.unmodifiableSet(apps);
+	}
+
+	private static void addTo(ConcurrentMap<String, Set<AbstractApp>> index, String key, AbstractApp app) {
+		index.compute(key, (k, apps) -> {
+			if (apps == null) {
+				apps = ConcurrentHashMap.newKeySet();
+			}
+			apps.add(app);
+			return apps;
+		});
+	}
+
+	private static void removeFrom(ConcurrentMap<String, Set<AbstractApp>> index, String key, AbstractApp app) {
+		index.computeIfPresent(key, (k, apps) -> {
+			apps.remove(app);
+			return apps.isEmpty() ? null : apps;
+		});
+	}
+}
@@ -18,7 +18,6 @@ package org.eclipse.californium.actinium;
 
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
@@ -51,8 +50,8 @@ public class AppResource extends LoggerProvidingResource {
 
 	private AppManager manager;
 	
-	// the list of all apps
-	private List<AbstractApp> apps;
+	// all apps, indexed by name, app name and library
+	private final AppRegistry apps;
 	
 	// the resource that holds the app's configs
 	private AppConfigsResource appConfigsRes;
@@ -74,7 +73,7 @@ public class AppResource extends LoggerProvidingResource {
 		
 		this.manager = manager;
 		
-		this.apps = new LinkedList<AbstractApp>();
+		this.apps = new AppRegistry();
 		
 		this.appConfigsRes = new AppConfigsResource(manager.getConfig().getProperty(Config.APP_CONFIG_RESOURSES));
 		add(appConfigsRes);
@@ -93,7 +92,7 @@ public class AppResource extends LoggerProvidingResource {
 	}
 	
 	public void startApps() {
-		for (AbstractApp app:apps) {
+		for (AbstractApp app:apps.getAll()) {
 			if (app.getConfig().getBool(AppConfig.START_ON_STARTUP)) {
 				app.start();
 			}
@@ -104,7 +103,7 @@ public class AppResource extends LoggerProvidingResource {
 	 * Stop all apps.
 	 */
 	public void stopApps() {
-		for (AbstractApp app:apps) {
+		for (AbstractApp app:apps.getAll()) {
 			app.getConfig().setPropertyAndNotify(AppConfig.RUNNING, AppConfig.STOP);
 		}
 	}
@@ -122,20 +121,11 @@ public class AppResource extends LoggerProvidingResource {
 	 * @return a list of all available apps' names.
 	 */
 	public String[] getAppsNames() {
-		String[] names = new String[apps.size()];
-		for (int i=0;i<names.length;i++) {
-			names[i] = apps.get(i).getName();
-		}
-		return names;
+		return apps.getNames().toArray(new String[0]);
 	}
 	
 	public AbstractApp getApp(String appname) {
-		if (appname==null) return null;
-		for (AbstractApp app:apps) {
-			if (appname.equals(app.getName()))
-				return app;
-		}
-		return null;
+		return apps.get(appname);
 	}
 	
 	/**
@@ -143,7 +133,7 @@ public class AppResource extends LoggerProvidingResource {
 	 * @return an array of all available apps
 	 */
 	public AbstractApp[] getAllApps() {
-		return apps.toArray(new AbstractApp[apps.size()]);
+		return apps.getAll().toArray(new AbstractApp[0]);
 	}
 
 	/**
@@ -153,9 +143,8 @@ public class AppResource extends LoggerProvidingResource {
 	 * @param appname the app's name
 	 */
 	public void restartApps(String appname) {
-		for (AbstractApp app:apps) {
-			if (appname.equals(app.getConfig().getProperty(AppConfig.APP))
-					&& app.getConfig().getProperty(AppConfig.RUNNING).equals(AppConfig.START)) {
+		for (AbstractApp app:apps.getByAppName(appname)) {
+			if (app.getConfig().getProperty(AppConfig.RUNNING).equals(AppConfig.START)) {
 				app.getConfig().setPropertyAndNotify(AppConfig.RUNNING, AppConfig.RESTART);
 			}
 		}
@@ -171,15 +160,13 @@ public class AppResource extends LoggerProvidingResource {
 	 *             accessible.
 	 */
 	public void deleteApps(String appname) throws IOException {
-		for (AbstractApp app:apps.toArray(new AbstractApp[apps.size()])) {
+		for (AbstractApp app:apps.getByAppName(appname).toArray(new AbstractApp[0])) {
 			AppConfig appcfg = app.getConfig();
-			if (appname.equals(appcfg.getProperty(AppConfig.APP))) {
-				if (appcfg.getProperty(AppConfig.RUNNING).equals(AppConfig.START) 
-						|| appcfg.getProperty(AppConfig.RUNNING).equals(AppConfig.RESTART)) {
-					appcfg.setPropertyAndNotify(AppConfig.RUNNING, AppConfig.STOP);
-				}
-				appcfg.deleteConfig();
+			if (appcfg.getProperty(AppConfig.RUNNING).equals(AppConfig.START) 
+					|| appcfg.getProperty(AppConfig.RUNNING).equals(AppConfig.RESTART)) {
+				appcfg.setPropertyAndNotify(AppConfig.RUNNING, AppConfig.STOP);
 			}
+			appcfg.deleteConfig();
 		}
 	}
 
@@ -201,8 +188,10 @@ public class AppResource extends LoggerProvidingResource {
 	 */
 	private void addApp(final AbstractApp app) {
 		
-		// add app to internal list
-		apps.add(app);
+		// add app to the registry
+		if (!apps.add(app)) {
+			throw new IllegalArgumentException("The name "+app.getName()+" is already in use for an app. Please specify a new name");
+		}
 		// set path for headless resource
 		app.setPath(runningRes.getURI() + "/");
 		
@@ -221,6 +210,7 @@ public class AppResource extends LoggerProvidingResource {
 					return;
 				ConfigChangeSet set = (ConfigChangeSet) arg;
 				if (set.contains(AppConfig.APP)) {
+					apps.updateAppName(app);
 					app.restart();
 				}
 				if (set.contains(AppConfig.RUNNING)) {
@@ -247,9 +237,7 @@ public class AppResource extends LoggerProvidingResource {
 	 */
 	@SuppressWarnings("unused")
 	private String createUniqueResourceId(String resid) {
-		HashSet<String> allids = new HashSet<String>();
-		for (AbstractApp a:apps)
-			allids.add(a.getName());
+		HashSet<String> allids = new HashSet<String>(apps.getNames());
 		
 		for (int i=2;i<allids.size()+1+2;i++) {
 			String test = resid +"(" + i + ")";
@@ -259,10 +247,17 @@ public class AppResource extends LoggerProvidingResource {
 		return null; // not possible to get here
 	}
 
+	public void addDependency(AbstractApp app, String libname) {
+		apps.addDependency(app, libname);
+	}
+
+	public void clearDependencies(AbstractApp app) {
+		apps.removeDependencies(app);
+	}
+
 	public void restartAppsByLibraryName(String libname) {
-		for (AbstractApp app:apps) {
-			if (app.dependencies.contains(libname)
-					&& app.getConfig().getProperty(AppConfig.RUNNING).equals(AppConfig.START)) {
+		for (AbstractApp app:apps.getByLibrary(libname)) {
+			if (app.getConfig().getProperty(AppConfig.RUNNING).equals(AppConfig.START)) {
 				app.getConfig().setPropertyAndNotify(AppConfig.RUNNING, AppConfig.RESTART);
 			}
 		}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.elements.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ClientEndpoints are the endpoints, that the apps use for their outbound
+ * requests instead of the default endpoint of Californium. Each endpoint has
+ * its own socket, its own MID and token space and its own protocol stage
+ * threads, so that apps, that send many requests, do not delay the requests of
+ * other apps.
+ * <p>
+ * An app either uses one endpoint or spreads its requests round-robin over
+ * all endpoints.
+ */
+public class ClientEndpoints {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ClientEndpoints.class);
+
+	private static Endpoint streamingEndpoint; // created on first use
+
+	private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Creates and starts the specified number of endpoints on ephemeral ports.
+	 *
+	 * @param count the number of endpoints
+	 * @param threads the number of protocol stage threads per endpoint
+	 */
+	public ClientEndpoints(int count, int threads) {
+		if (count <= 0) {
+			return;
+		}
+		Configuration configuration = new Configuration(Configuration.getStandard());
+		configuration.set(CoapConfig.PROTOCOL_STAGE_THREAD_COUNT, Math.max(1, threads));
+		for (int i = 0; i < count; i++) {
+			CoapEndpoint endpoint = new CoapEndpoint.Builder()
+					.setConfiguration(configuration)
+					.setInetSocketAddress(new InetSocketAddress(0))
+					.build();
+			try {
+				endpoint.start();
+				endpoints.add(endpoint);
+				LOG.info("Client endpoint {} started on {}", i, endpoint.getAddress());
+			} catch (IOException e) {
+				LOG.error("Cannot start client endpoint {}", i, e);
+				endpoint.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of endpoints.
+	 *
+	 * @return the number of endpoints
+	 */
+	public int size() {
+		return endpoints.size();
+	}
+
+	/**
+	 * Returns the selector of the endpoint for the outbound requests of an
+	 * app.
+	 *
+	 * @param index the index of the endpoint or a negative number to spread
+	 *            the requests over all endpoints
+	 * @return the selector or null, if there are no endpoints
+	 */
+	public Supplier<Endpoint> getSelector(int index) {
+		if (endpoints.isEmpty()) {
+			return null;
+		} else if (index < 0) {
+			return () -> endpoints.get(Math.floorMod(next.getAndIncrement(), endpoints.size()));
+		} else {
+			final Endpoint endpoint = endpoints.get(index % endpoints.size());
+			return () -> endpoint;
+		}
+	}
+
+	/**
+	 * Returns the endpoint for the streamed transfers of all apps. Its
+	 * MAX_RESOURCE_BODY_SIZE is 0, so that Californium passes every block of
+	 * a transfer to the app instead of assembling the blocks itself. It is
+	 * created and started on first use.
+	 *
+	 * @return the endpoint
+	 * @throws IOException if the endpoint cannot be started
+	 */
+	public static synchronized Endpoint getStreamingEndpoint() throws IOException {
+		if (streamingEndpoint == null) {
+			Configuration configuration = new Configuration(Configuration.getStandard());
+			configuration.set(CoapConfig.MAX_RESOURCE_BODY_SIZE, 0);
+			CoapEndpoint endpoint = new CoapEndpoint.Builder()
+					.setConfiguration(configuration)
+					.setInetSocketAddress(new InetSocketAddress(0))
+					.build();
+			try {
+				endpoint.start();
+			} catch (IOException e) {
+				endpoint.destroy();
+				throw e;
+			}
+			LOG.info("Streaming endpoint started on {}", endpoint.getAddress());
+			streamingEndpoint = endpoint;
+		}
+		return streamingEndpoint;
+	}
+
+	/**
+	 * Destroys all endpoints.
+	 */
+	public void destroy() {
+		for (Endpoint endpoint : endpoints) {
+			endpoint.destroy();
+		}
+		endpoints.clear();
+	}
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+/**
+ * RepresentationCache keeps the last 2.05 (Content) response of a resource to
+ * GET requests, one per query and Accept option. A cached response answers
+ * further GET requests directly on Californium's thread, without passing them
+ * to the app. The cache is invalidated, when the resource calls changed(),
+ * and a cached response expires with its Max-Age. Requests to observe the
+ * resource are never answered from the cache.
+ */
+public class RepresentationCache {
+
+	private static final long DEFAULT_MAX_AGE = 60;
+	// the maximum number of queries and Accept options
+	private static final int MAX_ENTRIES = 32;
+
+	private static class Entry {
+
+		private final OptionSet options;
+		private final byte[] payload;
+		private final long expires; // in nanoseconds
+
+		private Entry(OptionSet options, byte[] payload, long expires) {
+			this.options = options;
+			this.payload = payload;
+			this.expires = expires;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	// incremented by invalidate(), so that responses computed before are not stored
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Responds to the specified exchange with the cached response, if there
+	 * is a fresh one.
+	 *
+	 * @param exchange the exchange
+	 * @return true, if the exchange has been answered from the cache
+	 */
+	public boolean respond(Exchange exchange) {
+		String key = getKey(exchange.getRequest());
+		Entry entry = key == null ? null : entries.get(key);
+		if (entry == null) {
+			return false;
+		}
+		long remaining = entry.expires - System.nanoTime();
+		if (remaining <= 0) {
+			entries.remove(key, entry);
+			return false;
+		}
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setOptions(entry.options);
+		response.getOptions().setMaxAge((TimeUnit.NANOSECONDS.toMillis(remaining) + 999) / 1000);
+		response.setPayload(entry.payload);
+		exchange.sendResponse(response);
+		hits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Returns a CoapExchange for the specified exchange, that stores the
+	 * response to a cacheable request.
+	 *
+	 * @param exchange the exchange
+	 * @return the CoapExchange
+	 */
+	public CoapExchange wrap(Exchange exchange) {
+		final String key = getKey(exchange.getRequest());
+		if (key == null) {
+			return new CoapExchange(exchange);
+		}
+		misses.incrementAndGet();
+		final long current = generation.get();
+		return new CoapExchange(exchange) {
+			@Override
+			public void respond(Response response) {
+				super.respond(response);
+				store(key, current, response);
+			}
+		};
+	}
+
+	private void store(String key, long current, Response response) {
+		if (response.getCode() != ResponseCode.CONTENT) {
+			return;
+		}
+		OptionSet options = new OptionSet(response.getOptions());
+		long maxAge = options.hasMaxAge() ? options.getMaxAge() : DEFAULT_MAX_AGE;
+		if (maxAge <= 0 || (entries.size() >= MAX_ENTRIES && !entries.containsKey(key))) {
+			return;
+		}
+		Entry entry = new Entry(options, response.getPayload(), System.nanoTime() + TimeUnit.SECONDS.toNanos(maxAge));
+		entries.put(key, entry);
+		if (generation.get() != current) {
+			// changed() has been called meanwhile
+			entries.remove(key, entry);
+		}
+	}
+
+	/**
+	 * Removes all cached responses. Responses to requests, that are handled
+	 * at the moment, are not stored.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+
+	/**
+	 * Returns the key of the specified request or null, if the response must
+	 * not be cached.
+	 */
+	private static String getKey(Request request) {
+		OptionSet options = request.getOptions();
+		if (request.getCode() != CoAP.Code.GET || options.hasObserve()
+				|| (options.hasBlock2() && options.getBlock2().getNum() > 0)) {
+			return null;
+		}
+		return options.getUriQueryString() + "#" + (options.hasAccept() ? options.getAccept() : -1);
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of cacheable requests passed to the resource.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
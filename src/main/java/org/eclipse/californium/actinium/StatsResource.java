@@ -23,6 +23,9 @@ import java.util.Date;
 import java.util.HashMap;
 
 import org.eclipse.californium.actinium.cfg.Config;
+import org.eclipse.californium.actinium.jscoap.JavaScriptResource;
+import org.eclipse.californium.actinium.jscoap.ResponseCache;
+import org.eclipse.californium.actinium.jscoap.Sender;
 import org.eclipse.californium.actinium.plugnplay.AbstractApp;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -167,6 +170,18 @@ public class StatsResource extends CoapResource {
 		buffer.append("\n\tDELETE requests: "+allinfo.deletereqcount);
 		buffer.append("\n\tPayload: "+allinfo.payloadsum+" bytes");
 		
+		buffer.append("\n\tCoalesced outbound GET requests: "+Sender.getCoalescedRequests());
+		
+		ResponseCache cache = manager.getResponseCache();
+		if (cache!=null) {
+			buffer.append("\nClient cache:");
+			buffer.append("\n\tHits: "+cache.getHits());
+			buffer.append("\n\tMisses: "+cache.getMisses());
+			buffer.append("\n\tRevalidations: "+cache.getRevalidations());
+			buffer.append("\n\tEvictions: "+cache.getEvictions());
+			buffer.append("\n\tEntries: "+cache.getEntries()+" ("+cache.getSize()+" bytes)");
+		}
+		
 		for (AbstractApp app:apps) {
 			String appname = app.getName();
 			buffer.append("\n"+appname+":");
@@ -179,6 +194,7 @@ public class StatsResource extends CoapResource {
 			buffer.append("\n\tPUT requests: "+appinfo.putreqcount);
 			buffer.append("\n\tDELETE requests: "+appinfo.deletereqcount);
 			buffer.append("\n\tPayload: "+appinfo.payloadsum+" bytes");
+			buffer.append("\n\tDropped notifications: "+app.getDroppedNotifications());
 			
 			addRequestCounter(app, buffer);
 		}
@@ -246,11 +262,32 @@ public class StatsResource extends CoapResource {
 			buffer.append("\n\t\tDELETE request: "+resinfo.deletereqcount);
 			buffer.append("\n\t\tPayload: "+resinfo.payloadsum+" bytes");
 		}
+		RepresentationCache cache = getCache(res);
+		if (cache!=null) {
+			buffer.append("\n\t\tCache hits: "+cache.getHits());
+			buffer.append("\n\t\tCache misses: "+cache.getMisses());
+		}
 		for (Resource r:res.getChildren()) {
 			addRequestCounter(r,buffer);
 		}
 	}
 
+	/**
+	 * Returns the cache for the responses of the specified resource.
+	 * 
+	 * @param res the resource.
+	 * @return the cache or null, if the resource does not cache responses.
+	 */
+	private RepresentationCache getCache(Resource res) {
+		if (res instanceof AbstractApp) {
+			return ((AbstractApp) res).getCache();
+		} else if (res instanceof JavaScriptResource) {
+			return ((JavaScriptResource) res).getCache();
+		} else {
+			return null;
+		}
+	}
+
 	/**
 	 * Returns the name of the app instance to which the specified resource
 	 * belongs to or null if it corresponds to no app instance.
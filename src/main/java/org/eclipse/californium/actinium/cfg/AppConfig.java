@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Properties;
 
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 
@@ -65,6 +66,15 @@ public class AppConfig extends AbstractConfig {
 	
 	public static final String ENABLE_REQUEST_DELIVERY = "enable_request_delivery";
 	
+	public static final String MAILBOX_CAPACITY = "mailbox_capacity"; // max. number of requests waiting for the app's thread
+	public static final String OVERLOAD_MAX_AGE = "overload_max_age"; // Max-Age in seconds of the 5.03 response, if the mailbox is full
+	public static final String CONCURRENCY = "concurrency"; // number of replicas of the app with their own global scope and thread, that handle requests concurrently (each in an engine of its own, unless shared_engine is true)
+	public static final String SHARED_ENGINE = "shared_engine"; // true, if the app shares the JavaScript engine with the other apps instead of having an engine of its own
+	public static final String SUSPEND_SYNC_REQUESTS = "suspend_sync_requests"; // true, if a synchronous request only suspends its handler instead of blocking the app
+	public static final String CLIENT_ENDPOINT = "client_endpoint"; // index of the client endpoint for outbound requests, -1 to spread them over all
+	public static final String NOTIFICATION_INTERVAL = "notification_interval"; // min. milliseconds between two notifications of a resource, 0 to notify on every change
+	public static final String DETACHED_TIMEOUT = "detached_timeout"; // max. milliseconds a detached request may wait for its response before it is answered with 5.03, 0 to wait until the app stops
+	
 	public static final String RUNNING = "running"; // what state is desired. Allowed are {start, stop, restart}
 	public static final String START = "start";
 	public static final String STOP = "stop";
@@ -182,6 +192,14 @@ public class AppConfig extends AbstractConfig {
 		setProperty(ALLOW_OUTPUT, true);
 		setProperty(ALLOW_ERROR_OUTPUT, true);
 		setProperty(ENABLE_REQUEST_DELIVERY, true);
+		setProperty(MAILBOX_CAPACITY, WorkQueue.DEFAULT_CAPACITY);
+		setProperty(OVERLOAD_MAX_AGE, 2);
+		setProperty(CONCURRENCY, 1);
+		setProperty(SHARED_ENGINE, false);
+		setProperty(SUSPEND_SYNC_REQUESTS, false);
+		setProperty(CLIENT_ENDPOINT, -1);
+		setProperty(NOTIFICATION_INTERVAL, 0);
+		setProperty(DETACHED_TIMEOUT, 60000);
 		setProperty(RUNNING, STOP);
 		setProperty(DIR_PATH, "appserver/installed/");
 		setProperty(AVAILABILITY, AVAILABLE);
@@ -45,6 +45,16 @@ public class Config extends AbstractConfig {
 	public static final String RUNNING_RESOURCE_ID = "running_resource_id"; // identifier of RunningResource
 	public static final String STATS_RESOURCE_ID = "stats_resource_id"; // identifier of StatsResource
 	
+	public static final String TIMER_TICK = "timer_tick"; // resolution of app.setTimeout and app.setInterval in milliseconds
+	public static final String TIMER_THREADS = "timer_threads"; // number of threads that hand expired timers over to the apps
+
+	public static final String CODE_CACHE_PATH = "code_cache_path"; // path to the persistent cache of compiled JavaScript code
+	public static final String CODE_CACHE_SIZE = "code_cache_size"; // max. size of the code cache in KiB, 0 (default) disables it
+
+	public static final String CLIENT_ENDPOINTS = "client_endpoints"; // number of endpoints for outbound requests of apps, 0 for the default endpoint
+	public static final String CLIENT_THREADS = "client_threads"; // number of protocol stage threads per client endpoint
+	public static final String CLIENT_CACHE_SIZE = "client_cache_size"; // max. size of the cache for responses to GET requests of apps in KiB, 0 disables it
+	
 	/**
 	 * Constructs a new Config from the default path
 	 */
@@ -78,5 +88,15 @@ public class Config extends AbstractConfig {
 		setProperty(APP_CONFIG_RESOURSES, "instances");
 		setProperty(RUNNING_RESOURCE_ID, "running");
 		setProperty(STATS_RESOURCE_ID, "stats");
+
+		setProperty(TIMER_TICK, 10);
+		setProperty(TIMER_THREADS, 2);
+
+		setProperty(CODE_CACHE_PATH, "appserver/codecache/");
+		setProperty(CODE_CACHE_SIZE, 0);
+
+		setProperty(CLIENT_ENDPOINTS, 0);
+		setProperty(CLIENT_THREADS, 2);
+		setProperty(CLIENT_CACHE_SIZE, 0);
 	}
 }
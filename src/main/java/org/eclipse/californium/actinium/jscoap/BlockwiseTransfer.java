@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.californium.actinium.ClientEndpoints;
+import org.eclipse.californium.actinium.jscoap.jserror.NetworkErrorException;
+import org.eclipse.californium.actinium.jscoap.jserror.TimeoutErrorException;
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer;
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BlockwiseTransfer transfers a large representation block by block (RFC
+ * 7959), instead of letting Californium assemble it in memory.
+ * <p>
+ * A download requests the blocks with an explicit Block2 option and passes
+ * every block to the ondata function of the CoapRequest. An upload reads the
+ * payload from a {@link CoapPayloadSource} and sends it with Block1 options.
+ * Only one block is held in memory at a time. After each block, loaded and
+ * total of the CoapRequest are updated and onprogress is called. The response
+ * to the last block is passed to onload. The functions of an asynchronous
+ * transfer are called by the app's thread.
+ * <p>
+ * The blocks of coap URIs are sent over the streaming endpoint of
+ * {@link ClientEndpoints}, because the other endpoints assemble the blocks
+ * themselves and drop the responses to explicit Block1 requests.
+ */
+class BlockwiseTransfer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BlockwiseTransfer.class);
+
+	private final CoapRequest coapRequest;
+	private final Request template;
+	private final CoapPayloadSource source; // null for a download
+	private final CoapRequestEvent onready;
+	private final CoapRequestEvent ondata;
+	private final CoapRequestEvent onprogress;
+	private final CoapRequestEvent ontimeout;
+	private final CoapRequestEvent onload;
+	private final CoapRequestEvent onerror;
+	private final long timeout; // per block
+	private final boolean async;
+	private final Endpoint endpoint; // for other schemes than coap, null for the default endpoint
+	private final WorkQueue queue; // the queue of the app for the functions or null
+
+	private volatile Request current; // the request of the current block
+	private volatile HashedWheelTimer.Timeout timeoutTask;
+	private boolean finished;
+
+	private int szx;
+	private List<byte[]> etags; // of the first block of a download
+	// the bytes of an upload, that have been read but not sent yet
+	private byte[] pending = new byte[0];
+	private boolean exhausted;
+
+	BlockwiseTransfer(CoapRequest coapRequest, Request template, CoapPayloadSource source, int blockSize, long timeout, boolean async, Endpoint endpoint, WorkQueue queue) {
+		this.coapRequest = coapRequest;
+		this.template = template;
+		this.source = source;
+		this.onready = coapRequest.onreadystatechange;
+		this.ondata = coapRequest.ondata;
+		this.onprogress = coapRequest.onprogress;
+		this.ontimeout = coapRequest.ontimeout;
+		this.onload = coapRequest.onload;
+		this.onerror = coapRequest.onerror;
+		this.timeout = timeout;
+		this.async = async;
+		this.endpoint = endpoint;
+		this.queue = queue;
+		this.szx = BlockOption.size2Szx(Math.max(16, Math.min(1024, blockSize)));
+	}
+
+	/**
+	 * Starts the transfer. Synchronous requests wait, until it has completed.
+	 */
+	void start() {
+		coapRequest.loaded = 0;
+		coapRequest.total = 0;
+		try {
+			Request request = source == null ? newDownloadRequest(0) : newUploadRequest(0);
+			if (async) {
+				sendAsync(request);
+				return;
+			}
+			while (request != null) {
+				Response response;
+				try {
+					// suspends only the calling handler, if the app allows it
+					response = WorkQueue.await(send(request), timeout, TimeUnit.MILLISECONDS);
+				} catch (ExecutionException e) {
+					fail(e.getCause());
+					return;
+				} catch (InterruptedException | TimeoutException e) {
+					request.setTimedOut(true);
+					fail(new TimeoutErrorException());
+					return;
+				}
+				request = next(response);
+			}
+		} catch (RuntimeException e) {
+			complete();
+			throw e;
+		}
+	}
+
+	private void sendAsync(Request request) {
+		if (timeout > 0) {
+			timeoutTask = Sender.schedule(() -> request.setTimedOut(true), timeout);
+		}
+		send(request).whenComplete((response, error) -> {
+			cancelTimeout();
+			if (queue != null) {
+				queue.deliverCallback(() -> step(response, error));
+			} else {
+				step(response, error);
+			}
+		});
+	}
+
+	/**
+	 * Handles the outcome of the current block of an asynchronous transfer.
+	 */
+	private void step(Response response, Throwable error) {
+		try {
+			if (error != null) {
+				fail(error);
+			} else {
+				Request next = next(response);
+				if (next != null) {
+					sendAsync(next);
+				}
+			}
+		} catch (RuntimeException e) {
+			LOG.error("Blockwise transfer of {} failed", template.getURI(), e);
+			fail(new NetworkErrorException(e));
+		}
+	}
+
+	private CompletableFuture<Response> send(Request request) {
+		CompletableFuture<Response> result = new CompletableFuture<Response>();
+		current = request;
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				// a piggybacked 2.31 (Continue) has no payload
+				result.complete(response);
+			}
+
+			@Override
+			public void onTimeout() {
+				result.completeExceptionally(new TimeoutErrorException());
+			}
+
+			@Override
+			protected void failed() {
+				result.completeExceptionally(new NetworkErrorException());
+			}
+		});
+		try {
+			if (CoAP.COAP_URI_SCHEME.equals(request.getScheme())) {
+				request.send(ClientEndpoints.getStreamingEndpoint());
+			} else if (endpoint != null) {
+				request.send(endpoint);
+			} else {
+				request.send();
+			}
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(new NetworkErrorException(e));
+		}
+		return result;
+	}
+
+	/**
+	 * Handles the response to the current block and returns the request of
+	 * the next block or null, if the transfer has completed.
+	 */
+	private Request next(Response response) {
+		if (isFinished()) {
+			return null;
+		}
+		OptionSet options = response.getOptions();
+		if (source == null) {
+			if (!response.isSuccess()) {
+				finish(response);
+				return null;
+			}
+			BlockOption block2 = options.getBlock2();
+			if (block2 != null && block2.getNum() == 0) {
+				etags = options.getETags();
+			} else if (block2 != null && !sameETags(etags, options.getETags())) {
+				fail(new NetworkErrorException("Representation of " + template.getURI() + " changed during transfer"));
+				return null;
+			}
+			coapRequest.loaded += response.getPayloadSize();
+			if (options.hasSize2()) {
+				coapRequest.total = options.getSize2();
+			}
+			coapRequest.setResponse(response);
+			if (ondata != null)
+				ondata.call(coapRequest, response);
+			if (onprogress != null)
+				onprogress.call(coapRequest, response);
+			if (block2 != null && block2.isM()) {
+				// the server may have chosen a smaller block size
+				szx = block2.getSzx();
+				return newDownloadRequest(block2.getNum() + 1);
+			}
+		} else {
+			BlockOption sent = current.getOptions().getBlock1();
+			coapRequest.loaded += current.getPayloadSize();
+			if (onprogress != null)
+				onprogress.call(coapRequest, response);
+			if (response.getCode() == CoAP.ResponseCode.CONTINUE && sent.isM()) {
+				BlockOption block1 = options.getBlock1();
+				if (block1 != null && block1.getSzx() < szx) {
+					// the server asks for smaller blocks
+					szx = block1.getSzx();
+				}
+				return newUploadRequest((int) (coapRequest.loaded / getBlockSize()));
+			}
+		}
+		finish(response);
+		return null;
+	}
+
+	private Request newDownloadRequest(int num) {
+		Request request = newRequest();
+		request.getOptions().setBlock2(szx, false, num);
+		return request;
+	}
+
+	private Request newUploadRequest(int num) {
+		int size = getBlockSize();
+		fill(size + 1);
+		boolean more = pending.length > size;
+		byte[] block = more ? Arrays.copyOf(pending, size) : pending;
+		pending = more ? Arrays.copyOfRange(pending, size, pending.length) : new byte[0];
+		Request request = newRequest();
+		request.getOptions().setBlock1(szx, more, num);
+		request.setPayload(block);
+		return request;
+	}
+
+	private Request newRequest() {
+		Request request = new Request(template.getCode());
+		request.setType(template.getType());
+		request.setScheme(template.getScheme());
+		request.setDestinationContext(template.getDestinationContext());
+		request.setOptions(new OptionSet(template.getOptions()));
+		return request;
+	}
+
+	private int getBlockSize() {
+		return 1 << (szx + 4);
+	}
+
+	/**
+	 * Reads from the source, until the specified number of bytes is pending
+	 * or the source has no more data.
+	 */
+	private void fill(int size) {
+		if (exhausted || pending.length >= size) {
+			return;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(size);
+		buffer.write(pending, 0, pending.length);
+		while (buffer.size() < size) {
+			Object chunk = source.next();
+			if (chunk == null) {
+				exhausted = true;
+				break;
+			}
+			byte[] bytes = CoapRequest.toPayload(chunk);
+			buffer.write(bytes, 0, bytes.length);
+		}
+		pending = buffer.toByteArray();
+	}
+
+	private static boolean sameETags(List<byte[]> etags, List<byte[]> others) {
+		int size = etags == null ? 0 : etags.size();
+		if (size != (others == null ? 0 : others.size())) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (!Arrays.equals(etags.get(i), others.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void cancelTimeout() {
+		HashedWheelTimer.Timeout task = timeoutTask;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	private synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Marks the transfer as completed.
+	 *
+	 * @return true, if it has not been completed before
+	 */
+	private synchronized boolean complete() {
+		if (finished) {
+			return false;
+		}
+		finished = true;
+		cancelTimeout();
+		return true;
+	}
+
+	private void finish(Response response) {
+		if (complete()) {
+			coapRequest.setResponse(response);
+			coapRequest.setReadyState(CoapRequest.DONE);
+			if (onready != null)
+				onready.call(coapRequest, response);
+			if (onload != null)
+				onload.call(coapRequest, response);
+		}
+	}
+
+	private void fail(Throwable error) {
+		if (complete()) {
+			CoapRequestEvent function = error instanceof TimeoutErrorException ? ontimeout : onerror;
+			coapRequest.setError(true);
+			coapRequest.setReadyState(CoapRequest.DONE);
+			if (onready != null)
+				onready.call(coapRequest, null);
+			if (function != null)
+				function.call(coapRequest, null);
+		}
+	}
+
+	/**
+	 * Aborts the transfer, if it has not completed yet.
+	 */
+	void abort() {
+		if (complete()) {
+			Request request = current;
+			if (request != null) {
+				request.cancel();
+			}
+			coapRequest.setError(true);
+			coapRequest.setReadyState(CoapRequest.DONE);
+			coapRequest.setSend(false);
+			if (onready != null)
+				onready.call(coapRequest, null);
+			coapRequest.setReadyState(CoapRequest.UNSENT);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer;
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CoapBatch sends a list of opened CoapRequests with a limited number of
+ * requests in flight and reports the results of all requests to a single
+ * callback. Apps use it through
+ * {@link CoapRequest#sendAll(List, Map, CoapBatchEvent)}.
+ * <p>
+ * The requests of a batch share one deadline, instead of one timeout task per
+ * request. When the deadline expires, requests in flight time out and
+ * requests not yet sent are not sent anymore. The callbacks of the single
+ * requests (onload, onreadystatechange, ...) are not called.
+ * <p>
+ * A simple code demonstration to poll many nodes
+ * <pre>
+ * var requests = addresses.map(function(addr) {
+ *   var client = new CoapRequest();
+ *   client.open("GET", "coap://[" + addr + "]/hello");
+ *   return client;
+ * });
+ * CoapRequest.sendAll(requests, {maxInFlight: 16, timeout: 5000}, function(batch) {
+ *   app.dump(batch.succeeded + " of " + batch.requests.length + " in " + batch.elapsed + " ms");
+ * });
+ * </pre>
+ */
+public class CoapBatch {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CoapBatch.class);
+
+	public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+	public static final int PENDING = 0;
+	public static final int DONE = 1;
+	public static final int TIMEOUT = 2;
+	public static final int ERROR = 3;
+
+	// results
+	public final CoapRequest[] requests; // the requests with their responses
+	public final int[] results; // DONE, TIMEOUT or ERROR per request
+	public final long[] latencies; // milliseconds per request, -1 if not sent
+	public volatile int succeeded; // number of requests with a response
+	public volatile int failed; // number of requests with a network error
+	public volatile int timedOut; // number of requests that timed out
+	public volatile long elapsed; // milliseconds until all requests completed
+
+	private final byte[] data;
+	private final int maxInFlight;
+	private final long timeout;
+	private final CoapBatchEvent callback;
+	private final WorkQueue queue; // the queue of the app or null
+
+	private final AtomicReferenceArray<Sender> senders;
+	private final long[] sent;
+	private final AtomicInteger next = new AtomicInteger();
+	// number of requests to send, only the thread, that raised it from 0, sends
+	private final AtomicInteger toSend = new AtomicInteger();
+	private final AtomicInteger remaining;
+	private volatile boolean expired;
+	private volatile HashedWheelTimer.Timeout deadline;
+	private long start;
+
+	/**
+	 * Creates a new batch.
+	 *
+	 * @param requests the opened requests
+	 * @param data the payload of all requests
+	 * @param maxInFlight the maximum number of requests in flight
+	 * @param timeout the deadline of the batch in milliseconds or 0
+	 * @param callback the function, that is called with the results
+	 */
+	public CoapBatch(CoapRequest[] requests, byte[] data, int maxInFlight, long timeout, CoapBatchEvent callback) {
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive but is " + maxInFlight);
+		this.requests = requests;
+		this.data = data;
+		this.maxInFlight = maxInFlight;
+		this.timeout = timeout;
+		this.callback = callback;
+		this.queue = WorkQueue.getCurrent();
+		this.results = new int[requests.length];
+		this.latencies = new long[requests.length];
+		this.senders = new AtomicReferenceArray<Sender>(requests.length);
+		this.sent = new long[requests.length];
+		this.remaining = new AtomicInteger(requests.length);
+	}
+
+	/**
+	 * Sends the first requests. Each completed request sends the next one.
+	 */
+	public void send() {
+		start = System.nanoTime();
+		if (requests.length == 0) {
+			finish();
+			return;
+		}
+		if (timeout > 0) {
+			deadline = Sender.schedule(new Runnable() {
+				@Override
+				public void run() {
+					// like the responses, on the app's thread
+					if (queue != null) {
+						queue.deliverCallback(CoapBatch.this::expire);
+					} else {
+						expire();
+					}
+				}
+			}, timeout);
+		}
+		sendPending(maxInFlight);
+	}
+
+	/**
+	 * Sends the specified number of further requests. A request, that
+	 * completes while it is sent, e.g. because it cannot be sent or the batch
+	 * has expired, only raises the number of requests to send, so that long
+	 * batches are sent in this loop instead of a recursion.
+	 */
+	private void sendPending(int count) {
+		if (toSend.getAndAdd(count) != 0) {
+			// the sending thread picks them up
+			return;
+		}
+		int pending = count;
+		do {
+			for (int i = 0; i < pending; i++) {
+				sendNext();
+			}
+			pending = toSend.addAndGet(-pending);
+		} while (pending != 0);
+	}
+
+	private void sendNext() {
+		int index = next.getAndIncrement();
+		if (index >= requests.length) {
+			return;
+		}
+		if (expired) {
+			abandon(index);
+			return;
+		}
+		sent[index] = System.nanoTime();
+		try {
+			Sender sender = requests[index].send(data, null,
+					(request, response) -> complete(index, TIMEOUT),
+					(request, response) -> complete(index, DONE),
+					(request, response) -> complete(index, ERROR), 0);
+			senders.set(index, sender);
+			if (expired) {
+				// expire() may have missed this sender
+				sender.timeout();
+			}
+		} catch (RuntimeException e) {
+			LOG.debug("Cannot send request {} of batch", index, e);
+			complete(index, ERROR);
+		}
+	}
+
+	private void complete(int index, int result) {
+		synchronized (this) {
+			if (results[index] != PENDING) {
+				return;
+			}
+			results[index] = result;
+			if (result == DONE) {
+				succeeded++;
+			} else if (result == TIMEOUT) {
+				timedOut++;
+			} else {
+				failed++;
+			}
+			if (sent[index] != 0) {
+				latencies[index] = (System.nanoTime() - sent[index]) / 1000000;
+			} else {
+				latencies[index] = -1;
+			}
+		}
+		if (remaining.decrementAndGet() == 0) {
+			finish();
+		} else {
+			sendPending(1);
+		}
+	}
+
+	/**
+	 * Times out the requests in flight and all requests, that have not been
+	 * sent yet.
+	 */
+	private void expire() {
+		expired = true;
+		int from = Math.min(next.getAndSet(requests.length), requests.length);
+		for (int i = 0; i < from; i++) {
+			Sender sender = senders.get(i);
+			if (sender != null) {
+				sender.timeout();
+			}
+		}
+		for (int i = from; i < requests.length; i++) {
+			abandon(i);
+		}
+	}
+
+	/**
+	 * Completes a request, that has not been sent, with a timeout.
+	 */
+	private void abandon(int index) {
+		requests[index].setError(true);
+		requests[index].setReadyState(CoapRequest.DONE);
+		complete(index, TIMEOUT);
+	}
+
+	private void finish() {
+		HashedWheelTimer.Timeout deadline = this.deadline;
+		if (deadline != null) {
+			deadline.cancel();
+		}
+		elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (callback != null) {
+			callback.call(this);
+		}
+	}
+}
@@ -17,7 +17,12 @@ package org.eclipse.californium.actinium.jscoap;
 
 import org.eclipse.californium.core.coap.Request;
 
+/**
+ * A handler of requests in JavaScript. The handler either responds before it
+ * returns or it detaches the exchange or returns a JavaScriptPromise and
+ * responds later.
+ */
 @FunctionalInterface
 public interface CoapCallback {
-    void call(JavaScriptCoapExchange ex, Request request);
+    Object call(JavaScriptCoapExchange ex, Request request);
 }
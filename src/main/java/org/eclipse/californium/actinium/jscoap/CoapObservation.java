@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer;
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.observe.NotificationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CoapObservation is an observe relation of an app with a remote resource
+ * (RFC 7641). Apps create it through {@link CoapRequest#observe(CoapRequestEvent)}
+ * and receive every notification, instead of polling the resource.
+ * <p>
+ * Californium passes the notifications after the first response to the
+ * notification listeners of the endpoint, not to the request. The observation
+ * therefore listens on its endpoint for the notifications with its token.
+ * <p>
+ * The notifications are delivered to the app's queue, so that the function is
+ * called by the app's thread. If notifications arrive faster than the app
+ * handles them, only the latest one is kept and the older ones are dropped.
+ * Reordered notifications are ignored. When the Max-Age of the last
+ * notification expires without a new one, the relation is registered again.
+ * Cancelling the relation does not send a message, the server learns about it
+ * by the reset of its next notification.
+ * <p>
+ * A simple code demonstration to observe a resource
+ * <pre>
+ * var client = new CoapRequest();
+ * client.open("GET", "coap://example.com/temperature");
+ * var observation = client.observe(function(request, response) {
+ *   app.dump("temperature: " + request.responseText);
+ * });
+ * ...
+ * observation.cancel();
+ * </pre>
+ */
+public class CoapObservation {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CoapObservation.class);
+
+	// time to wait for a notification after the Max-Age expired
+	private static final long REREGISTRATION_BACKOFF = 2000;
+	private static final long DEFAULT_MAX_AGE = 60;
+	// the time after which a notification is newer, regardless of its number
+	private static final long ORDER_TIMEOUT = 128000000000L;
+
+	private final CoapRequest coapRequest;
+	private final Request request;
+	private final CoapRequestEvent onnotify;
+	private final CoapRequestEvent onerror;
+	private final Endpoint endpoint; // null for the default endpoint
+	private final WorkQueue queue; // the queue of the app or null
+	private final NotificationListener listener = this::onNotification;
+	private volatile Endpoint target; // the endpoint, that receives the notifications
+
+	// the notification, that waits for the app
+	private final AtomicReference<Response> latest = new AtomicReference<Response>();
+	private final AtomicLong notifications = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean cancelled;
+	private volatile HashedWheelTimer.Timeout reregistration;
+	private volatile Request current; // the last request sent to register
+
+	// the order of the last notification
+	private int lastObserve = -1;
+	private long lastTime;
+
+	CoapObservation(CoapRequest coapRequest, Request request, CoapRequestEvent onnotify, CoapRequestEvent onerror, Endpoint endpoint) {
+		this.coapRequest = coapRequest;
+		this.request = request;
+		this.onnotify = onnotify;
+		this.onerror = onerror;
+		this.endpoint = endpoint;
+		this.queue = WorkQueue.getCurrent();
+	}
+
+	/**
+	 * Sends the request, that registers this observation.
+	 */
+	void start() {
+		request.setObserve();
+		Endpoint target = endpoint != null ? endpoint : EndpointManager.getEndpointManager().getDefaultEndpoint(request.getScheme());
+		if (target != null) {
+			this.target = target;
+			target.addNotificationListener(listener);
+		}
+		send(request);
+	}
+
+	// by ReceiverThread
+	private void onNotification(Request notified, Response response) {
+		if (request.getToken() != null && request.getToken().equals(notified.getToken())) {
+			receive(response);
+		}
+	}
+
+	private void send(Request request) {
+		current = request;
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				receive(response);
+			}
+
+			@Override
+			public void onTimeout() {
+				fail();
+			}
+
+			@Override
+			protected void failed() {
+				fail();
+			}
+		});
+		if (endpoint != null) {
+			request.send(endpoint);
+		} else {
+			request.send();
+		}
+	}
+
+	// by ReceiverThread
+	private void receive(Response response) {
+		if (cancelled || response.getType() == CoAP.Type.ACK && response.getPayloadSize() == 0) {
+			return;
+		}
+		if (queue != null && !queue.isRunning()) {
+			// the app has been stopped
+			cancel();
+			return;
+		}
+		Integer observe = response.getOptions().getObserve();
+		if (observe == null) {
+			// the server does not (or no longer) accept the observer
+			cancelled = true;
+			cancelReregistration();
+			removeListener();
+		} else if (!isNewer(observe)) {
+			return;
+		} else {
+			scheduleReregistration(response);
+		}
+		notifications.incrementAndGet();
+		if (latest.getAndSet(response) == null) {
+			dispatch(this::notifyApp);
+		} else {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns true, if the notification with the specified number is newer
+	 * than the last one according to RFC 7641, Section 3.4.
+	 */
+	private synchronized boolean isNewer(int observe) {
+		long now = System.nanoTime();
+		boolean newer = lastObserve < 0
+				|| (lastObserve < observe && observe - lastObserve < (1 << 23))
+				|| (lastObserve > observe && lastObserve - observe > (1 << 23))
+				|| now - lastTime > ORDER_TIMEOUT;
+		if (newer) {
+			lastObserve = observe;
+			lastTime = now;
+		}
+		return newer;
+	}
+
+	// by the app's thread
+	private void notifyApp() {
+		Response response = latest.getAndSet(null);
+		if (response != null && (!cancelled || response.getOptions().getObserve() == null)) {
+			coapRequest.setResponse(response);
+			coapRequest.setReadyState(CoapRequest.DONE);
+			if (onnotify != null)
+				onnotify.call(coapRequest, response);
+		}
+	}
+
+	private void fail() {
+		if (!cancelled) {
+			cancel();
+			dispatch(() -> {
+				coapRequest.setError(true);
+				coapRequest.setReadyState(CoapRequest.DONE);
+				if (onerror != null)
+					onerror.call(coapRequest, null);
+			});
+		}
+	}
+
+	private void dispatch(Runnable task) {
+		Runnable guarded = () -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOG.error("Callback of observation of {} failed", request.getURI(), e);
+			}
+		};
+		if (queue != null) {
+			queue.deliverCallback(guarded);
+		} else {
+			guarded.run();
+		}
+	}
+
+	private void scheduleReregistration(Response response) {
+		OptionSet options = response.getOptions();
+		long maxAge = options.hasMaxAge() ? options.getMaxAge() : DEFAULT_MAX_AGE;
+		long delay = maxAge * 1000 + REREGISTRATION_BACKOFF;
+		HashedWheelTimer.Timeout previous = reregistration;
+		reregistration = Sender.schedule(this::reregister, delay);
+		if (previous != null) {
+			previous.cancel();
+		}
+	}
+
+	private void removeListener() {
+		Endpoint target = this.target;
+		if (target != null) {
+			target.removeNotificationListener(listener);
+		}
+	}
+
+	private void cancelReregistration() {
+		HashedWheelTimer.Timeout task = reregistration;
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Registers the observation again with the same token, since the server
+	 * has not sent a notification within the Max-Age of the last one.
+	 */
+	private void reregister() {
+		if (!cancelled) {
+			Request refresh = Request.newGet();
+			refresh.setType(request.getType());
+			refresh.setScheme(request.getScheme());
+			refresh.setDestinationContext(request.getDestinationContext());
+			refresh.setOptions(new OptionSet(request.getOptions()));
+			refresh.setToken(request.getToken());
+			send(refresh);
+		}
+	}
+
+	/**
+	 * Cancels this observation. No message is sent, the server removes the
+	 * relation, when the next notification is rejected.
+	 */
+	public void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			cancelReregistration();
+			latest.set(null);
+			Request last = current;
+			if (last != null) {
+				last.cancel();
+			}
+			removeListener();
+			Endpoint target = this.target;
+			if (target != null && request.getToken() != null) {
+				target.cancelObservation(request.getToken());
+			}
+		}
+	}
+
+	/**
+	 * Returns true, if this observation has been cancelled or ended.
+	 *
+	 * @return true, if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of notifications received.
+	 *
+	 * @return the number of notifications
+	 */
+	public long getNotifications() {
+		return notifications.get();
+	}
+
+	/**
+	 * Returns the number of notifications, that have been dropped, since a
+	 * newer one arrived before the app handled them.
+	 *
+	 * @return the number of dropped notifications
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -16,12 +16,18 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.jscoap;
 
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
 import org.eclipse.californium.core.coap.CoAP.Type;
 import org.eclipse.californium.elements.util.Bytes;
 import org.eclipse.californium.core.coap.*;
+import org.eclipse.californium.core.network.Endpoint;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
 
-import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -51,6 +57,9 @@ import java.util.Map;
  */
 public class CoapRequest implements JavaScriptCoapConstants {
 
+	// parsed URIs and resolved hosts of all requests
+	private static final DestinationCache DESTINATIONS = new DestinationCache(256, 60);
+
 	public static int UNSENT = 0;
 	public static int OPENED = 1;
 	public static int HEADERS_RECEIVED = 2; // not used, since receiving happens wihtin Californium framework
@@ -60,13 +69,15 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	// response
 	public Response response; // the whole response
 	public String responseType = ""; // the type of the response (e.g. "text/plain")
-	public String responseText; // the payload as string
 	public String responseLocationPath; // the response's location header (if defined)
+	private String responseText; // the payload as string, decoded on first access
 	
 	public CoapRequestEvent onreadystatechange;
 	public CoapRequestEvent ontimeout; // called, if timeout occurs
 	public CoapRequestEvent onload; // called, if response successfully received
 	public CoapRequestEvent onerror; // called, if a network error in Californium occurs
+	public CoapRequestEvent ondata; // if set, a GET is streamed and this is called with every block
+	public CoapRequestEvent onprogress; // called after every block of a streamed transfer
 	
 	// request
 	public String uri; // target of the request
@@ -76,6 +87,7 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	public long timeout; // milliseconds (timeout==0 ==> no timeout)
 	public Integer contenttype; // contentType as integer (e.g. application/xml == 41)
 	public boolean confirmable;
+	public int blocksize = 1024; // block size of streamed transfers (16 to 1024)
 	
 	// status
 	public volatile boolean send; // true, if request has been sent
@@ -85,12 +97,30 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	public volatile int httpstatus; // HTTP status
 	public volatile int status; // CoAP status
 	public volatile String statusText; // CoAP status as string
+	public volatile long loaded; // bytes transferred by a streamed transfer
+	public volatile long total; // size of a streamed download, if the server sends it
 	
 	// internal
 	public Map<Integer, List<Option>> options = new HashMap<Integer, List<Option>>();
 
 	// sender, that has sent the last request
 	private Sender sender;
+
+	// observation of the last request or null
+	private CoapObservation observation;
+
+	// blockwise transfer of the last request or null
+	private BlockwiseTransfer transfer;
+
+	// endpoint of the app, that opened the request, or null for the default endpoint
+	private Endpoint endpoint;
+
+	// queue of the app, that opened the request, for the functions or null
+	private WorkQueue queue;
+
+	// method and destination, prebuilt by open()
+	private CoAP.Code code;
+	private DestinationCache.Destination destination;
 	
 	/**
 	 * Open connection to specified URI. Resets state from last request.
@@ -118,8 +148,16 @@ public class CoapRequest implements JavaScriptCoapConstants {
 		if (!isValidMethod(method))
 			throw new IllegalArgumentException("Invalid method "+method+". Only GET, POST, PUT and DELETE allowed");
 
-		if (!isValidURI(uri))
+		DestinationCache.Destination destination;
+		try {
+			if (uri==null)
+				throw new URISyntaxException("null", "URI is null");
+			destination = DESTINATIONS.get(uri);
+		} catch (URISyntaxException e) {
 			throw new IllegalArgumentException("Invalid URI "+uri);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Unknown host of URI "+uri);
+		}
 		
 		// terminate abort: do nothing
 		// terminate send:
@@ -127,9 +165,13 @@ public class CoapRequest implements JavaScriptCoapConstants {
 		
 		this.uri = uri;
 		this.method = method;
+		this.code = CoAP.Code.valueOf(method);
+		this.destination = destination;
 		this.async = async;
 		this.send = false;
 		this.confirmable = confirmable;
+		this.endpoint = WorkQueue.getClientEndpoint();
+		this.queue = WorkQueue.getCurrent();
 		setResponse(null);
 		
 		setReadyState(OPENED);
@@ -143,20 +185,70 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	public void abort() {
 		if (sender!=null)
 			sender.abort();
+		if (observation!=null)
+			observation.cancel();
+		if (transfer!=null)
+			transfer.abort();
 	}
 	
 	/**
 	 * Send an empty message.
 	 */
 	public void send() {
-		send("");
+		send(Bytes.EMPTY);
 	}
 
 	/**
-	 * Send the specified data.
+	 * Send the specified data. A String is sent as UTF-8, a byte[] or
+	 * ByteBuffer as binary data, null and undefined as empty payload. There is
+	 * only this one method, so that JavaScript's send(null) is not ambiguous.
+	 * An array or a buffer, that wraps a whole array, is not copied and must
+	 * not be changed afterwards.
 	 * @param data data to send
 	 */
-	public void send(String data) {
+	public void send(Object data) {
+		if (ondata!=null && "GET".equals(method))
+			stream(null);
+		else
+			send(toPayload(data), onreadystatechange, ontimeout, onload, onerror, timeout);
+	}
+
+	/**
+	 * Send the data of the specified source block by block. Only one block is
+	 * held in memory at a time and onprogress is called after every block.
+	 * @param source the function, that returns the next chunk of data or null
+	 *            at the end
+	 */
+	public void sendStream(CoapPayloadSource source) {
+		if (source==null)
+			throw new IllegalArgumentException("The source of a stream must not be null");
+		stream(source);
+	}
+
+	/**
+	 * Starts a blockwise transfer, that uploads the data of the specified
+	 * source or, if null, downloads the target block by block.
+	 */
+	private void stream(CoapPayloadSource source) {
+		BlockwiseTransfer t;
+		synchronized(this) {
+			checkOpenUnsentState();
+			this.error = false;
+			this.send = true;
+			t = new BlockwiseTransfer(this, createNewRequest(Bytes.EMPTY), source, blocksize, timeout, isAsync(), endpoint, queue);
+			this.transfer = t;
+		}
+		// outside of the lock, a synchronous transfer waits for the blocks
+		t.start();
+	}
+
+	/**
+	 * Send the specified data and call the specified functions instead of the
+	 * ones of this object.
+	 * @param data data to send
+	 * @return the sender of the request
+	 */
+	Sender send(byte[] data, CoapRequestEvent onreadystatechange, CoapRequestEvent ontimeout, CoapRequestEvent onload, CoapRequestEvent onerror, long timeout) {
 		
 		Sender s; Request request;
 		synchronized(this) {
@@ -174,11 +266,75 @@ public class CoapRequest implements JavaScriptCoapConstants {
 			// create request
 			request = createNewRequest(data);
 
-			s = new Sender(this, request, onreadystatechange, ontimeout, onload, onerror, timeout, isAsync());
+			s = new Sender(this, request, onreadystatechange, ontimeout, onload, onerror, timeout, isAsync(), endpoint, queue);
 			s.send();
 			this.sender = s;
 			
 		}
+		return s;
+	}
+
+	/**
+	 * Observes the target resource. The specified function is called by the
+	 * app's thread with every notification, until the observation is
+	 * cancelled or the server ends it. If the observation fails, onerror is
+	 * called. Use this instead of setObserverOption() and send(), which only
+	 * deliver the first response.
+	 * @param onnotify the function, that is called with the notifications
+	 * @return the observation
+	 */
+	public synchronized CoapObservation observe(CoapRequestEvent onnotify) {
+		if (readyState!=OPENED)
+			throw new IllegalStateException("state must be OPENED (==1) but is "+readyState);
+		if (send)
+			throw new IllegalStateException("The flag send must not be set when calling observe() (first call open())");
+		if (!"GET".equals(method))
+			throw new IllegalStateException("Only GET requests can observe a resource but method is "+method);
+
+		this.error = false;
+		this.send = true;
+		CoapObservation o = new CoapObservation(this, createNewRequest(Bytes.EMPTY), onnotify, onerror, endpoint);
+		this.observation = o;
+		o.start();
+		return o;
+	}
+
+	/**
+	 * Sends the specified opened requests asynchronously and calls the
+	 * callback once with the results of all of them. At most maxInFlight
+	 * requests (default 16) are sent at the same time. The optional timeout
+	 * in milliseconds is a deadline for the whole batch, which replaces the
+	 * timeouts of the single requests. The options may also contain a
+	 * payload for all requests.
+	 * 
+	 * @param requests the opened requests
+	 * @param options the options or null
+	 * @param callback the function, that is called with the {@link CoapBatch}
+	 * @return the batch
+	 */
+	public static CoapBatch sendAll(List<?> requests, Map<String, Object> options, CoapBatchEvent callback) {
+		CoapRequest[] array = new CoapRequest[requests.size()];
+		for (int i = 0; i < array.length; i++) {
+			Object request = requests.get(i);
+			if (!(request instanceof CoapRequest))
+				throw new IllegalArgumentException("CoapRequest.sendAll expects CoapRequests but got "+request);
+			if (!((CoapRequest) request).isAsync())
+				throw new IllegalArgumentException("CoapRequest.sendAll expects asynchronous requests");
+			array[i] = (CoapRequest) request;
+		}
+		int maxInFlight = CoapBatch.DEFAULT_MAX_IN_FLIGHT;
+		long timeout = 0;
+		byte[] data = Bytes.EMPTY;
+		if (options != null) {
+			Object value = options.get("maxInFlight");
+			if (value instanceof Number) maxInFlight = ((Number) value).intValue();
+			value = options.get("timeout");
+			if (value instanceof Number) timeout = ((Number) value).longValue();
+			data = toPayload(options.get("payload"));
+		}
+		CoapBatch batch = new CoapBatch(array, data, maxInFlight, timeout, callback);
+		batch.send();
+		return batch;
 	}
 	
 	/**
@@ -369,7 +525,7 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	protected synchronized void setResponse(Response response) {
 		if (response!=null) {
 			this.response = response;
-			this.responseText = response.getPayloadString();
+			this.responseText = null;
 			this.responseType = MediaTypeRegistry.toString(response.getOptions().getContentFormat());
 			this.responseLocationPath = response.getOptions().getLocationPathString();
 			this.status = response.getCode().value;
@@ -387,6 +543,70 @@ public class CoapRequest implements JavaScriptCoapConstants {
 		}
 	}
 	
+	/**
+	 * Returns the payload of the response as string. It is decoded on first
+	 * access.
+	 * @return the payload as string or null, if there is no response
+	 */
+	public synchronized String getResponseText() {
+		if (responseText == null && response != null) {
+			responseText = response.getPayloadString();
+		}
+		return responseText;
+	}
+
+	/**
+	 * Returns the payload of the response. The array is not copied and must
+	 * not be changed.
+	 * @return the payload or null, if there is no response
+	 */
+	public synchronized byte[] getResponseBytes() {
+		return response == null ? null : response.getPayload();
+	}
+
+	/**
+	 * Returns a read-only view of the payload of the response, e.g., to read
+	 * numbers of a binary payload with getShort() or getFloat().
+	 * @return the view or null, if there is no response
+	 */
+	public synchronized ByteBuffer getResponseBuffer() {
+		return response == null ? null : ByteBuffer.wrap(response.getPayload()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the specified payload (String, byte[] or ByteBuffer) as bytes.
+	 * @param payload the payload, null or undefined
+	 * @return the bytes
+	 */
+	public static byte[] toPayload(Object payload) {
+		if (payload == null || ScriptObjectMirror.isUndefined(payload)) {
+			return Bytes.EMPTY;
+		} else if (payload instanceof byte[]) {
+			return (byte[]) payload;
+		} else if (payload instanceof ByteBuffer) {
+			return toBytes((ByteBuffer) payload);
+		} else {
+			return payload.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Returns the remaining bytes of the specified buffer. Copies them only,
+	 * if the buffer does not wrap a whole array.
+	 */
+	private static byte[] toBytes(ByteBuffer buffer) {
+		if (buffer == null) {
+			return Bytes.EMPTY;
+		}
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+				&& buffer.remaining() == buffer.array().length) {
+			return buffer.array();
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+	
 	/**
 	 * Sets the readyState.
 	 * @param readyState the readyState.
@@ -416,27 +636,15 @@ public class CoapRequest implements JavaScriptCoapConstants {
 	 * @param data the payload.
 	 * @return the request.
 	 */
-	private Request createNewRequest(String data) {
-		Request request;
-		
-		if ("GET".equals(method)) {
-			request = Request.newGet();
-		
-		} else if ("POST".equals(method)) {
-			request = Request.newPost();
-		
-		} else if ("PUT".equals(method)) {
-			request = Request.newPut();
-		
-		} else if ("DELETE".equals(method)) {
-			request = Request.newDelete();
-		
-		} else {
-			throw new IllegalArgumentException("Unknown CoAP method: "+method+". Only \"GET\", \"POST\", \"PUT\" and \"DELETE\" are allowed");
-		}
-
+	private Request createNewRequest(byte[] data) {
+		// the method and destination have been prebuilt by open()
+		Request request = new Request(code);
 		request.setType(confirmable ? Type.CON : Type.NON);
-		request.setURI(uri);
+		// the scheme, the resolved address and a copy of the options of the URI
+		request.setScheme(destination.getScheme());
+		request.setDestinationContext(destination.getContext());
+		request.setOptions(destination.getOptions());
+		request.setUriIsApplied();
 		request.setPayload(data);
 		
 		/*
@@ -457,25 +665,6 @@ public class CoapRequest implements JavaScriptCoapConstants {
 		return request;
 	}
 	
-	/**
-	 * Returns true, if the specified URI is typed correctly.
-	 * @param uri the URI.
-	 * @return true, if the specified URI is typed correctly.
-	 */
-	private boolean isValidURI(String uri) {
-		// let class util.net.URI check
-		try {
-			if (uri!=null) {
-				new URI(uri);
-				return true;
-			} else {
-				return false;
-			}
-		} catch (URISyntaxException e) {
-			return false;
-		}
-	}
-	
 	/**
 	 * Returns true, if the specified method is typed correctly.
 	 * @param method the method.
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.AddressEndpointContext;
+import org.eclipse.californium.elements.EndpointContext;
+
+/**
+ * DestinationCache keeps the parsed URIs of outbound requests together with
+ * the resolved addresses of their hosts and their options, so that requests
+ * sent again and again to the same target neither parse the URI, nor resolve
+ * the host, nor build the options each time. The cache holds a limited
+ * number of destinations and evicts the least recently used one. A resolved
+ * host name is resolved again after its time to live, IP literals never
+ * expire.
+ */
+class DestinationCache {
+
+	/**
+	 * The scheme of a URI, the address of its host and its options.
+	 */
+	static class Destination {
+
+		private final String scheme;
+		private final EndpointContext context;
+		private final OptionSet options; // must not be changed, only copied
+		private final long expires; // in nanoseconds, 0 for an IP literal
+
+		private Destination(String scheme, EndpointContext context, OptionSet options, long expires) {
+			this.scheme = scheme;
+			this.context = context;
+			this.options = options;
+			this.expires = expires;
+		}
+
+		/**
+		 * Returns the scheme of the URI, that selects the endpoint.
+		 *
+		 * @return the scheme in lower case
+		 */
+		String getScheme() {
+			return scheme;
+		}
+
+		EndpointContext getContext() {
+			return context;
+		}
+
+		/**
+		 * Returns the Uri-Host, Uri-Port, Uri-Path and Uri-Query options of
+		 * the URI. Requests must copy them, e.g. with setOptions(OptionSet).
+		 *
+		 * @return the options
+		 */
+		OptionSet getOptions() {
+			return options;
+		}
+
+		private boolean isExpired(long now) {
+			return expires != 0 && now - expires > 0;
+		}
+	}
+
+	private final int capacity;
+	private final long ttl; // in nanoseconds
+	private final Map<String, Destination> destinations;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity the maximum number of destinations
+	 * @param ttl the time to live of resolved host names in seconds
+	 */
+	DestinationCache(int capacity, long ttl) {
+		this.capacity = capacity;
+		this.ttl = TimeUnit.SECONDS.toNanos(ttl);
+		this.destinations = new LinkedHashMap<String, Destination>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Destination> eldest) {
+				return size() > DestinationCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the destination of the specified URI. Parses the URI and
+	 * resolves its host, if the destination is not cached or has expired.
+	 *
+	 * @param uri the URI
+	 * @return the destination
+	 * @throws URISyntaxException if the URI is invalid
+	 * @throws UnknownHostException if the host cannot be resolved
+	 */
+	Destination get(String uri) throws URISyntaxException, UnknownHostException {
+		long now = System.nanoTime();
+		Destination destination;
+		synchronized (destinations) {
+			destination = destinations.get(uri);
+		}
+		if (destination == null || destination.isExpired(now)) {
+			// resolve outside of the lock, it may take a while
+			destination = resolve(uri, now);
+			synchronized (destinations) {
+				destinations.put(uri, destination);
+			}
+		}
+		return destination;
+	}
+
+	private Destination resolve(String uri, long now) throws URISyntaxException, UnknownHostException {
+		URI parsed = new URI(uri);
+		String host = parsed.getHost();
+		if (parsed.getScheme() == null || host == null) {
+			throw new URISyntaxException(uri, "URI has no scheme or host");
+		}
+		int port = parsed.getPort() < 0 ? CoAP.getDefaultPort(parsed.getScheme()) : parsed.getPort();
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
+		boolean literal = isLiteral(host);
+		EndpointContext context = new AddressEndpointContext(address, literal ? null : host, null);
+		// let Californium derive the options from the URI once
+		Request template = new Request(CoAP.Code.GET);
+		template.setDestinationContext(context);
+		template.setOptions(parsed);
+		return new Destination(parsed.getScheme().toLowerCase(), context, template.getOptions(), literal ? 0 : (now + ttl) | 1);
+	}
+
+	private static boolean isLiteral(String host) {
+		if (host.startsWith("[")) {
+			return true;
+		}
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if (c != '.' && (c < '0' || c > '9')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of cached destinations.
+	 *
+	 * @return the number of destinations
+	 */
+	int size() {
+		synchronized (destinations) {
+			return destinations.size();
+		}
+	}
+}
@@ -23,12 +23,14 @@ import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Created by ynh on 25/10/15.
  */
 public class JavaScriptCoapExchange {
     private final CoapExchange exchange;
+    private volatile boolean detached;
 
     public JavaScriptCoapExchange(CoapExchange exchange) {
         this.exchange = exchange;
@@ -58,6 +60,38 @@ public class JavaScriptCoapExchange {
         return this.exchange.getRequestText();
     }
 
+    /**
+     * Returns a read-only view of the request's payload without copying it.
+     *
+     * @return the view
+     */
+    public ByteBuffer getRequestBuffer() {
+        return ByteBuffer.wrap(this.exchange.getRequestPayload()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Detaches this exchange from the handler, which may then return without
+     * responding and respond later, e.g., from a timer or the callback of a
+     * CoapRequest. A confirmable request gets a separate empty ACK, if the
+     * response does not follow soon enough to be piggybacked.
+     */
+    public void detach() {
+        this.detached = true;
+    }
+
+    public boolean isDetached() {
+        return this.detached;
+    }
+
+    /**
+     * Returns true, if a response has been sent for this exchange.
+     *
+     * @return true, if responded
+     */
+    public boolean isResponded() {
+        return this.exchange.advanced().getResponse() != null;
+    }
+
     public void accept() {
         this.exchange.accept();
     }
@@ -140,6 +174,14 @@ public class JavaScriptCoapExchange {
         this.exchange.respond(getResponseCode(jsCode), payload, contentFormat);
     }
 
+    public void respond(Object jsCode, ByteBuffer payload) {
+        this.exchange.respond(getResponseCode(jsCode), CoapRequest.toPayload(payload));
+    }
+
+    public void respond(Object jsCode, ByteBuffer payload, int contentFormat) {
+        this.exchange.respond(getResponseCode(jsCode), CoapRequest.toPayload(payload), contentFormat);
+    }
+
     public void respond(CoAP.ResponseCode code, String payload, int contentFormat) {
         this.exchange.respond(code, payload, contentFormat);
     }
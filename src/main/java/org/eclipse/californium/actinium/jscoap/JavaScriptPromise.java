@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * JavaScriptPromise is a thenable for JavaScript apps, e.g., the result of
+ * app.fetch. It is backed by a CompletableFuture, that may be completed by
+ * any thread, but the functions passed to {@link #then(Function, Function)}
+ * are always called by the executor of the app, i.e., its own thread.
+ * <p>
+ * A simple code demonstration to fetch data from several CoAP resources
+ * <pre>
+ * app.all([
+ *   app.fetch("GET", "coap://sensor-1/temp"),
+ *   app.fetch("GET", "coap://sensor-2/temp")
+ * ]).then(function(requests) {
+ *   request.respond(2.05, requests[0].responseText + ", " + requests[1].responseText);
+ * }, function(error) {
+ *   request.respond(5.04, error.message);
+ * });
+ * </pre>
+ */
+public class JavaScriptPromise {
+
+	private final CompletableFuture<Object> future;
+	private final Executor executor;
+
+	/**
+	 * Creates a new promise, that is settled by the specified future.
+	 *
+	 * @param future the future
+	 * @param executor the executor, that calls the functions of then()
+	 */
+	public JavaScriptPromise(CompletableFuture<Object> future, Executor executor) {
+		this.future = future;
+		this.executor = executor;
+	}
+
+	/**
+	 * Registers the specified function to be called with the value of this
+	 * promise, once it is fulfilled.
+	 *
+	 * @param onFulfilled the function or null
+	 * @return a new promise, that is resolved with the function's result
+	 */
+	public JavaScriptPromise then(Function<Object, Object> onFulfilled) {
+		return then(onFulfilled, null);
+	}
+
+	/**
+	 * Registers the specified functions to be called with the value of this
+	 * promise, once it is fulfilled, or with the error, once it is rejected.
+	 * If a function returns a promise, the returned promise follows it.
+	 *
+	 * @param onFulfilled the function for the value or null
+	 * @param onRejected the function for the error or null
+	 * @return a new promise, that is resolved with the function's result
+	 */
+	public JavaScriptPromise then(final Function<Object, Object> onFulfilled, final Function<Object, Object> onRejected) {
+		final CompletableFuture<Object> next = new CompletableFuture<Object>();
+		future.whenComplete((value, error) -> executor.execute(() -> {
+			try {
+				if (error == null) {
+					if (onFulfilled == null) {
+						next.complete(value);
+					} else {
+						resolve(next, onFulfilled.apply(value));
+					}
+				} else {
+					Throwable cause = unwrap(error);
+					if (onRejected == null) {
+						next.completeExceptionally(cause);
+					} else {
+						resolve(next, onRejected.apply(cause));
+					}
+				}
+			} catch (RuntimeException e) {
+				next.completeExceptionally(e);
+			}
+		}));
+		return new JavaScriptPromise(next, executor);
+	}
+
+	/**
+	 * Returns a promise, that is fulfilled with an array of the values of all
+	 * specified promises, or rejected with the first error. Values, that are
+	 * not promises, are taken as they are.
+	 *
+	 * @param values the promises
+	 * @param executor the executor of the app
+	 * @return the new promise
+	 */
+	public static JavaScriptPromise all(List<?> values, Executor executor) {
+		final CompletableFuture<?>[] futures = toFutures(values);
+		final CompletableFuture<Object> result = new CompletableFuture<Object>();
+		CompletableFuture.allOf(futures).thenRun(() -> {
+			Object[] array = new Object[futures.length];
+			for (int i = 0; i < futures.length; i++) {
+				array[i] = futures[i].join();
+			}
+			result.complete(array);
+		});
+		// allOf waits for all futures, but the first error rejects at once
+		for (CompletableFuture<?> future : futures) {
+			future.whenComplete((value, error) -> {
+				if (error != null) {
+					result.completeExceptionally(unwrap(error));
+				}
+			});
+		}
+		return new JavaScriptPromise(result, executor);
+	}
+
+	/**
+	 * Returns a promise, that is settled like the first of the specified
+	 * promises, that is settled.
+	 *
+	 * @param values the promises
+	 * @param executor the executor of the app
+	 * @return the new promise
+	 */
+	public static JavaScriptPromise race(List<?> values, Executor executor) {
+		return new JavaScriptPromise(CompletableFuture.anyOf(toFutures(values)), executor);
+	}
+
+	private static CompletableFuture<?>[] toFutures(List<?> values) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[values.size()];
+		for (int i = 0; i < futures.length; i++) {
+			Object value = values.get(i);
+			if (value instanceof JavaScriptPromise) {
+				futures[i] = ((JavaScriptPromise) value).future;
+			} else {
+				futures[i] = CompletableFuture.completedFuture(value);
+			}
+		}
+		return futures;
+	}
+
+	/**
+	 * Completes the specified future with the specified result or, if the
+	 * result is a promise, as soon as the promise is settled.
+	 */
+	private static void resolve(final CompletableFuture<Object> future, Object result) {
+		if (result instanceof JavaScriptPromise) {
+			((JavaScriptPromise) result).future.whenComplete((value, error) -> {
+				if (error == null) {
+					future.complete(value);
+				} else {
+					future.completeExceptionally(unwrap(error));
+				}
+			});
+		} else {
+			future.complete(result);
+		}
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		if ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+			return error.getCause();
+		}
+		return error;
+	}
+}
@@ -16,11 +16,19 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.jscoap;
 
+import java.util.concurrent.TimeUnit;
+
 import jdk.nashorn.api.scripting.NashornException;
 
 import org.eclipse.californium.actinium.LoggerProvidingResource;
+import org.eclipse.californium.actinium.RepresentationCache;
+import org.eclipse.californium.actinium.plugnplay.AbstractApp;
+import org.eclipse.californium.actinium.plugnplay.NotificationCoalescer;
 import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
 
 /**
  * It is not possible to add further methods or fields to this class within
@@ -34,6 +42,16 @@ public class JavaScriptResource extends LoggerProvidingResource implements JavaS
 	public CoapCallback onpost = null;
 	public CoapCallback onput = null;
 	public CoapCallback ondelete = null;
+
+	// the time in milliseconds a detached exchange may take to respond, before
+	// the request is acknowledged separately
+	public static final long SEPARATE_ACK_DELAY = 1000;
+
+	// the cache for responses to GET requests or null, if disabled
+	private volatile RepresentationCache cache;
+
+	// limits the rate of the notifications to the interval of the app
+	private final NotificationCoalescer coalescer = new NotificationCoalescer(() -> super.changed(), this::getObserverCount);
 	
 	public JavaScriptResource() {
 		super("js-request");
@@ -53,7 +71,38 @@ public class JavaScriptResource extends LoggerProvidingResource implements JavaS
 
 	@Override
 	public void changed() {
-		super.changed();
+		RepresentationCache cache = this.cache;
+		if (cache != null)
+			cache.invalidate();
+		coalescer.changed(getApp());
+	}
+
+	/**
+	 * Enables or disables caching the responses to GET requests. Cached
+	 * responses are sent without passing the request to the app, until
+	 * changed() is called or their Max-Age expires.
+	 * @param caching true to enable caching
+	 */
+	public void setCaching(boolean caching) {
+		if (caching != isCaching())
+			this.cache = caching ? new RepresentationCache() : null;
+	}
+
+	/**
+	 * Returns true, if the responses to GET requests are cached.
+	 * @return true, if caching is enabled
+	 */
+	public boolean isCaching() {
+		return cache != null;
+	}
+
+	/**
+	 * Returns the cache for the responses to GET requests, e.g. for its
+	 * statistics.
+	 * @return the cache or null, if disabled
+	 */
+	public RepresentationCache getCache() {
+		return cache;
 	}
 	
 	public CoapCallback getOnget() {
@@ -75,6 +124,48 @@ public class JavaScriptResource extends LoggerProvidingResource implements JavaS
 	public Object getThis() {
 		return this;
 	}
+
+	/**
+	 * Returns the app this resource has been added to or null.
+	 * @return the app this resource belongs to or null
+	 */
+	public AbstractApp getApp() {
+		Resource parent = getParent();
+		while (parent != null && !(parent instanceof AbstractApp)) {
+			parent = parent.getParent();
+		}
+		return (AbstractApp) parent;
+	}
+
+	/**
+	 * Requests for subresources of an app are executed by the app's thread,
+	 * if it has one. If caching is enabled, a cached response is sent
+	 * directly. If the app has disabled the delivery of requests, neither
+	 * the handlers nor the cache respond.
+	 */
+	@Override
+	public void handleRequest(Exchange exchange) {
+		AbstractApp app = getApp();
+		if (app != null && !app.isRequestDeliveryEnabled()) {
+			Response response = new Response(CoAP.ResponseCode.FORBIDDEN);
+			response.setPayload("Request delivery has been disabled for this app");
+			exchange.sendResponse(response);
+			return;
+		}
+		RepresentationCache cache = this.cache;
+		if (cache != null && cache.respond(exchange)) {
+			return;
+		}
+		if (app == null || app.isReceiverThread() || !app.hasReceiverThread()) {
+			if (cache != null && exchange.getRequest().getCode() == CoAP.Code.GET) {
+				handleGET(cache.wrap(exchange));
+			} else {
+				super.handleRequest(exchange);
+			}
+		} else {
+			app.deliverRequestToSubResource(exchange, this);
+		}
+	}
 	
 	@Override
 	public void handleGET(CoapExchange exchange) {
@@ -86,14 +177,66 @@ public class JavaScriptResource extends LoggerProvidingResource implements JavaS
 		}
 	}
 
-	private void callJSCallback(CoapExchange exchange, CoapCallback callback) {
+	/**
+	 * Calls the specified handler. If the handler returns a promise or detaches
+	 * the exchange, it may respond later and the app's thread is free to
+	 * handle further requests in the meantime. The app answers detached
+	 * exchanges with 5.03, if they are not answered in time or it stops.
+	 */
+	private void callJSCallback(CoapExchange original, CoapCallback callback) {
+		AbstractApp app = getApp();
+		CoapExchange exchange = app != null ? app.wrapDetachable(original) : original;
+		JavaScriptCoapExchange jsExchange = new JavaScriptCoapExchange(exchange);
+		Object result;
 		try {
-			callback.call(new JavaScriptCoapExchange(exchange), exchange.advanced().getRequest());
+			result = callback.call(jsExchange, exchange.advanced().getRequest());
 		} catch (NashornException e){
 			exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR, e.getMessage());
 			logger.error("JavaScript error in [{}#{}]: {}", e.getFileName(), e.getLineNumber(), e.getMessage());
 			throw e;
 		}
+		if (result instanceof JavaScriptPromise) {
+			jsExchange.detach();
+			((JavaScriptPromise) result).then(value -> {
+				if (!jsExchange.isResponded()) {
+					exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR, "No response");
+				}
+				return null;
+			}, error -> {
+				String message = error instanceof Throwable ? ((Throwable) error).getMessage() : String.valueOf(error);
+				if (!jsExchange.isResponded()) {
+					exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR, String.valueOf(message));
+				}
+				logger.error("JavaScript error in handler of [{}]: {}", getURI(), message);
+				return null;
+			});
+		}
+		if (jsExchange.isDetached() && !jsExchange.isResponded()) {
+			acceptLater(exchange);
+			if (app != null) {
+				app.addDetached(exchange);
+			}
+		}
+	}
+
+	/**
+	 * Acknowledges a confirmable request with an empty ACK, unless the
+	 * response has been sent within the SEPARATE_ACK_DELAY.
+	 */
+	private void acceptLater(final CoapExchange exchange) {
+		if (!exchange.advanced().getRequest().isConfirmable()) {
+			return;
+		}
+		AbstractApp app = getApp();
+		if (app == null) {
+			exchange.accept();
+			return;
+		}
+		app.getTimer().schedule(() -> {
+			if (exchange.advanced().getResponse() == null) {
+				exchange.accept();
+			}
+		}, SEPARATE_ACK_DELAY, TimeUnit.MILLISECONDS);
 	}
 
 	@Override
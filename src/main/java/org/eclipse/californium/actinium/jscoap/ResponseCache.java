@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+/**
+ * ResponseCache caches the responses to GET requests of all apps, so that
+ * apps, that poll the same resources, do not send the same requests over and
+ * over again.
+ * <p>
+ * A response is fresh for the time of its Max-Age option (60 seconds, if not
+ * present). A fresh response is returned without sending the request. If a
+ * stale response has an ETag, the request is sent with this ETag and a 2.03
+ * (Valid) response makes the cached response fresh again. The size of the
+ * cache is bounded, the least recently used responses are evicted first.
+ */
+public class ResponseCache {
+
+	// the Max-Age of a response without Max-Age option
+	private static final long DEFAULT_MAX_AGE = 60;
+
+	// the estimated size of an entry without payload and key
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final long maxSize;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxSize the maximum size of all cached responses in bytes
+	 */
+	public ResponseCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the key of the specified request or null, if the response to
+	 * the request must not be cached. Only GET requests without Observe option
+	 * are cacheable.
+	 *
+	 * @param request the request
+	 * @return the key or null
+	 */
+	public String getKey(Request request) {
+		OptionSet options = request.getOptions();
+		if (request.getCode() != Code.GET || options.hasObserve()) {
+			return null;
+		}
+		String uri = request.getURI();
+		if (options.hasAccept()) {
+			return uri + "#" + options.getAccept();
+		}
+		return uri;
+	}
+
+	/**
+	 * Returns the cached entry for the specified key. The entry is fresh or
+	 * it can be revalidated with its ETag.
+	 *
+	 * @param key the key
+	 * @return the entry or null
+	 */
+	public synchronized Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (entry.isFresh()) {
+			hits.incrementAndGet();
+			return entry;
+		}
+		misses.incrementAndGet();
+		if (entry.etag == null) {
+			remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Updates the cache with the specified response and returns the response
+	 * for the app. A 2.03 (Valid) response to the ETag of the stale entry
+	 * makes the entry fresh again and the app gets the cached response.
+	 *
+	 * @param key the key of the request
+	 * @param stale the stale entry, whose ETag has been sent, or null
+	 * @param response the response
+	 * @return the response for the app
+	 */
+	public Response update(String key, Entry stale, Response response) {
+		ResponseCode code = response.getCode();
+		OptionSet options = response.getOptions();
+		long maxAge = options.hasMaxAge() ? options.getMaxAge() : DEFAULT_MAX_AGE;
+		if (code == ResponseCode.VALID && stale != null && matches(stale.etag, options.getETags())) {
+			revalidations.incrementAndGet();
+			stale.refresh(maxAge);
+			return stale.response;
+		}
+		if (code == ResponseCode.CONTENT && !response.isNotification()) {
+			List<byte[]> etags = options.getETags();
+			byte[] etag = etags.isEmpty() ? null : etags.get(0);
+			if (maxAge > 0 || etag != null) {
+				put(key, new Entry(key, response, etag, maxAge));
+			} else {
+				synchronized (this) {
+					remove(key);
+				}
+			}
+		}
+		return response;
+	}
+
+	private synchronized void put(String key, Entry entry) {
+		remove(key);
+		if (entry.size > maxSize) {
+			return;
+		}
+		entries.put(key, entry);
+		size += entry.size;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			size -= eldest.size;
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			size -= entry.size;
+		}
+	}
+
+	private static boolean matches(byte[] etag, List<byte[]> etags) {
+		if (etag == null) {
+			return false;
+		}
+		// a 2.03 response without ETag validates the single ETag of the request
+		if (etags.isEmpty()) {
+			return true;
+		}
+		for (byte[] other : etags) {
+			if (Arrays.equals(etag, other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all responses from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache.
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests, that have been sent.
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of stale responses made fresh again by 2.03 (Valid).
+	 * @return the number of revalidations
+	 */
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Returns the number of responses evicted to stay within the size limit.
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of cached responses.
+	 * @return the number of cached responses
+	 */
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated size of all cached responses in bytes.
+	 * @return the size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * A cached response
+	 */
+	public static class Entry {
+
+		private final Response response;
+		private final byte[] etag;
+		private final int size;
+		private volatile long expires; // System.nanoTime() when the response becomes stale
+
+		private Entry(String key, Response response, byte[] etag, long maxAge) {
+			this.response = response;
+			this.etag = etag;
+			this.size = ENTRY_OVERHEAD + 2 * key.length() + response.getPayloadSize();
+			refresh(maxAge);
+		}
+
+		private void refresh(long maxAge) {
+			expires = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxAge);
+		}
+
+		/**
+		 * Returns true, if the response can be used without revalidation.
+		 * @return true, if fresh
+		 */
+		public boolean isFresh() {
+			return expires - System.nanoTime() > 0;
+		}
+
+		/**
+		 * Returns the cached response.
+		 * @return the response
+		 */
+		public Response getResponse() {
+			return response;
+		}
+
+		/**
+		 * Returns the ETag to revalidate a stale response or null.
+		 * @return the ETag or null
+		 */
+		public byte[] getETag() {
+			return etag;
+		}
+	}
+}
@@ -17,16 +17,28 @@
 package org.eclipse.californium.actinium.jscoap;
 
 import org.eclipse.californium.actinium.jscoap.jserror.NetworkErrorException;
+import org.eclipse.californium.actinium.jscoap.jserror.TimeoutErrorException;
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer;
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.elements.util.DaemonThreadFactory;
-import org.eclipse.californium.elements.util.ExecutorsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Sender implements the process to send a request.
@@ -34,18 +46,33 @@ import java.util.concurrent.atomic.AtomicInteger;
  * (http://lantersoft.ch/download/bachelorthesis/CoAPRequest_API.pdf)
  * <p>
  * Only one of the functions onload, ontimeout, onerror gets called (according
- * to the outcome of the request).
+ * to the outcome of the request). The functions of an asynchronous request
+ * are delivered to the queue of the app, that opened the request, so that
+ * they are called by the app's thread and not by Californium's threads.
+ * <p>
+ * Concurrent GET requests to the same URI with the same options share one
+ * exchange: only the first one is sent, the others get its response. If the
+ * first one times out or fails, so do the others.
  */
 
 public class Sender {
+    private static final Logger LOG = LoggerFactory.getLogger(Sender.class);
     private static final ThreadGroup JSCOAP_THREAD_GROUP = new ThreadGroup("jscoap"); //$NON-NLS-1$
-    private static final ScheduledExecutorService SCHEDULER;
+    // a timer wheel, since most timeouts are cancelled before they expire
+    private static final HashedWheelTimer TIMER;
 
     static {
         JSCOAP_THREAD_GROUP.setDaemon(false);
-        SCHEDULER = ExecutorsUtil.newScheduledThreadPool(2, new DaemonThreadFactory("jstimer#", JSCOAP_THREAD_GROUP));
+        TIMER = new HashedWheelTimer(new DaemonThreadFactory("jstimer#", JSCOAP_THREAD_GROUP), 10, 512, 2);
     }
 
+    // the cache for the responses of all apps or null
+    private static volatile ResponseCache responseCache;
+
+    // the futures of the GET requests in flight by their key
+    private static final ConcurrentMap<List<Object>, CompletableFuture<Response>> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static final AtomicLong COALESCED = new AtomicLong();
+
     public static final int READY = 0;
     public static final int SENT = 1;
     public static final int TIMEOUT = 2;
@@ -62,8 +89,20 @@ public class Sender {
     private final long timeout;
     private final boolean async;
     private final Request request;
+    private final Endpoint endpoint; // null for the default endpoint
+    private final WorkQueue queue; // the queue of the app for the functions or null
+    private volatile boolean shared; // true, if the response of another sender is shared
+    private volatile HashedWheelTimer.Timeout timeoutTask; // the timeout of an asynchronous request
 
     public Sender(CoapRequest coapRequest, Request request, CoapRequestEvent onready, CoapRequestEvent ontimeout, CoapRequestEvent onload, CoapRequestEvent onerror, long timeout, boolean async) {
+        this(coapRequest, request, onready, ontimeout, onload, onerror, timeout, async, null);
+    }
+
+    public Sender(CoapRequest coapRequest, Request request, CoapRequestEvent onready, CoapRequestEvent ontimeout, CoapRequestEvent onload, CoapRequestEvent onerror, long timeout, boolean async, Endpoint endpoint) {
+        this(coapRequest, request, onready, ontimeout, onload, onerror, timeout, async, endpoint, null);
+    }
+
+    public Sender(CoapRequest coapRequest, Request request, CoapRequestEvent onready, CoapRequestEvent ontimeout, CoapRequestEvent onload, CoapRequestEvent onerror, long timeout, boolean async, Endpoint endpoint, WorkQueue queue) {
         this.coapRequest = coapRequest;
         this.onready = onready;
         this.ontimeout = ontimeout;
@@ -72,60 +111,199 @@ public class Sender {
         this.timeout = timeout;
         this.async = async;
         this.request = request;
+        this.endpoint = endpoint;
+        this.queue = queue;
+    }
+
+    /**
+     * Sets the cache for the responses of all apps.
+     *
+     * @param cache the cache or null to disable caching
+     */
+    public static void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+
+    /**
+     * Returns the cache for the responses of all apps.
+     *
+     * @return the cache or null, if disabled
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
     }
 
     public void send() {
         if (state.compareAndSet(READY, SENT)) {
-            if (async) {
-                request.addMessageObserver(new MessageObserverAdapter() {
-                    @Override
-                    public void onResponse(Response response) {
-                        if (!isAcknowledgement(response)) {
-                            handleResponse(response);
-                        }
+            final ResponseCache cache = responseCache;
+            final String key = cache == null ? null : cache.getKey(request);
+            final ResponseCache.Entry cached = key == null ? null : cache.get(key);
+            if (cached != null) {
+                if (cached.isFresh()) {
+                    if (async) {
+                        // like a response from the network, not by the calling thread
+                        TIMER.execute(() -> completeAsync(cached.getResponse(), null));
+                    } else {
+                        handleResponse(cached.getResponse());
                     }
-
-                    @Override
-                    public void onTimeout() {
-                        handleError(TIMEOUT);
-                    }
-                });
+                    return;
+                }
+                // a 2.03 (Valid) response makes the cached response fresh again
+                request.getOptions().addETag(cached.getETag());
             }
+            final CompletableFuture<Response> result = new CompletableFuture<>();
+            final List<Object> flightKey = getFlightKey(request, endpoint);
+            if (flightKey != null) {
+                CompletableFuture<Response> flight = IN_FLIGHT.putIfAbsent(flightKey, result);
+                if (flight != null) {
+                    // an identical request is in flight, share its response
+                    COALESCED.incrementAndGet();
+                    shared = true;
+                    await(flight, false);
+                    return;
+                }
+                result.whenComplete((response, error) -> IN_FLIGHT.remove(flightKey, result));
+            }
+            /*
+             * Wait for the response with a future instead of
+             * Request.waitForResponse, so that WorkQueue.await can suspend
+             * only the calling handler.
+             */
+            request.addMessageObserver(new MessageObserverAdapter() {
+                @Override
+                public void onResponse(Response response) {
+                    if (!isAcknowledgement(response)) {
+                        result.complete(key == null ? response : cache.update(key, cached, response));
+                    }
+                }
+
+                @Override
+                public void onTimeout() {
+                    result.completeExceptionally(new TimeoutErrorException());
+                }
+
+                @Override
+                protected void failed() {
+                    result.completeExceptionally(new NetworkErrorException());
+                }
+            });
             try {
-                request.send();
+                if (endpoint != null) {
+                    request.send(endpoint);
+                } else {
+                    request.send();
+                }
             } catch (Exception e) {
+                result.completeExceptionally(new NetworkErrorException(e));
                 handleError(ERROR);
                 throw new NetworkErrorException(e.toString());
             }
-            if (async) {
-                if (timeout > 0) {
-                    SCHEDULER.schedule(new Runnable() {
-                        @Override
-                        public void run() {
+            await(result, true);
+        }
+    }
+
+    /**
+     * Calls the functions, once the response of the specified future arrives.
+     * Synchronous requests wait for it.
+     *
+     * @param result the future of the response
+     * @param sent true, if this sender has sent the request, false, if it
+     *            shares the response of another sender
+     */
+    private void await(CompletableFuture<Response> result, boolean sent) {
+        if (async) {
+            // schedule before the response may complete and cancel it
+            if (timeout > 0) {
+                timeoutTask = TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sent) {
                             request.setTimedOut(true);
+                        } else {
+                            completeAsync(null, new TimeoutErrorException());
                         }
-                    }, timeout, TimeUnit.MILLISECONDS);
-                }
-            } else {
-                try {
-                    Response result = request.waitForResponse(timeout);
-                    if (result == null) {
-                        request.setTimedOut(true);
-                        handleError(TIMEOUT);
-                    }else {
-                        handleResponse(result);
                     }
-                } catch (InterruptedException e) {
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+            result.whenComplete((response, error) -> completeAsync(response, error));
+        } else {
+            try {
+                // suspends only the calling handler, if the app allows it
+                complete(WorkQueue.await(result, timeout, TimeUnit.MILLISECONDS), null);
+            } catch (ExecutionException e) {
+                complete(null, e.getCause());
+            } catch (InterruptedException | TimeoutException e) {
+                if (sent) {
                     request.setTimedOut(true);
-                    handleError(TIMEOUT);
                 }
+                handleError(TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Completes an asynchronous request. The functions are delivered to the
+     * app's queue, if known. Otherwise the caller would swallow exceptions of
+     * the functions, thus, they are logged.
+     */
+    private void completeAsync(Response response, Throwable error) {
+        Runnable callback = () -> {
+            try {
+                complete(response, error);
+            } catch (RuntimeException e) {
+                LOG.error("Callback of CoapRequest to {} failed", request.getURI(), e);
             }
+        };
+        if (queue != null) {
+            queue.deliverCallback(callback);
+        } else {
+            callback.run();
+        }
+    }
+
+    private void complete(Response response, Throwable error) {
+        if (error == null) {
+            handleResponse(response);
+        } else if (error instanceof TimeoutErrorException) {
+            handleError(TIMEOUT);
+        } else {
+            handleError(ERROR);
         }
     }
 
+    /**
+     * Returns the key to share the response of the specified request with
+     * identical requests in flight or null, if the request must be sent on
+     * its own. Only GET requests without Observe option are shared, if they
+     * are sent over the same endpoint with the same message type.
+     *
+     * @param request the request
+     * @param endpoint the endpoint to send the request or null for the default
+     *            endpoint
+     * @return the key or null
+     */
+    private static List<Object> getFlightKey(Request request, Endpoint endpoint) {
+        if (request.getCode() != CoAP.Code.GET || request.getOptions().hasObserve()) {
+            return null;
+        }
+        // endpoints compare by identity
+        return Arrays.asList(endpoint, request.getType(), request.getURI(), request.getOptions().asSortedList());
+    }
+
+    /**
+     * Returns the number of requests, that shared the response of an
+     * identical request in flight instead of being sent.
+     *
+     * @return the number of coalesced requests
+     */
+    public static long getCoalescedRequests() {
+        return COALESCED.get();
+    }
+
     // by ReceiverThread
     private void handleResponse(Response response) {
         if (state.compareAndSet(SENT, DONE)) {
+            cancelTimeout();
             coapRequest.setResponse(response);
             coapRequest.setReadyState(CoapRequest.DONE);
             if (onready != null)
@@ -136,8 +314,42 @@ public class Sender {
     }
 
 
+    /**
+     * Lets the request time out now, if it has not completed yet.
+     */
+    void timeout() {
+        if (shared) {
+            completeAsync(null, new TimeoutErrorException());
+        } else if (state.get() == SENT) {
+            request.setTimedOut(true);
+        }
+    }
+
+    /**
+     * Schedules the specified task on the timer of the senders.
+     *
+     * @param task the task
+     * @param millis the delay in milliseconds
+     * @return the timeout to cancel the task
+     */
+    static HashedWheelTimer.Timeout schedule(Runnable task, long millis) {
+        return TIMER.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the timeout task, so that it does not stay in the timer until
+     * it expires.
+     */
+    private void cancelTimeout() {
+        HashedWheelTimer.Timeout task = timeoutTask;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
     public void abort() {
         if (state.compareAndSet(SENT, ABORTED)) {
+            cancelTimeout();
             request.cancel();
             coapRequest.setError(true);
             coapRequest.setReadyState(CoapRequest.DONE);
@@ -150,6 +362,7 @@ public class Sender {
 
     private void handleError(int newState) {
         if (state.compareAndSet(SENT, newState)) {
+            cancelTimeout();
             CoapRequestEvent function = newState == TIMEOUT ? ontimeout : onerror;
             coapRequest.setError(true);
             coapRequest.setReadyState(CoapRequest.DONE);
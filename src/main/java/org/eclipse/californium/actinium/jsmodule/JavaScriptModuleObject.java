@@ -15,24 +15,21 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.jsmodule;
 
-import org.eclipse.californium.actinium.Utils;
-import org.eclipse.californium.actinium.plugnplay.AppContext;
-
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import java.io.File;
-import java.io.FileNotFoundException;
 
 
 public class JavaScriptModuleObject  {
 
     /**
-     * Returns an object containing the exported variables. The variables are exported using the exports
-     * variable as defined in the CommonJS module format.
+     * Compiles the module. Evaluating the compiled script in the context of an app returns a new object containing the
+     * exported variables. The variables are exported using the exports variable as defined in the CommonJS module
+     * format.
      */
-    public static Object create(String name, ScriptEngine engine, AppContext ctx, File jsFile) throws FileNotFoundException, ScriptException {
-        String content = Utils.readFile(jsFile);
-        return engine.eval(transformSource(name, content), ctx);
+    public static CompiledScript compile(String name, ScriptEngine engine, String content) throws ScriptException {
+        return ((Compilable) engine).compile(transformSource(name, content));
     }
 
     /**
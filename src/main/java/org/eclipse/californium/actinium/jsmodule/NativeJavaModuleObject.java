@@ -15,6 +15,8 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.jsmodule;
 
+import jdk.internal.dynalink.beans.StaticClass;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.eclipse.californium.actinium.plugnplay.AppContext;
 import org.eclipse.californium.actinium.plugnplay.DynamicClassloader;
 
@@ -24,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Properties;
+import java.util.function.Function;
 
 
 public class NativeJavaModuleObject {
@@ -33,12 +36,21 @@ public class NativeJavaModuleObject {
      * engine to use classes defined in the JAR file. The object provides access to the Java classes mapped in the config
      * file. A mapping is defined by adding a key value entry to the config file. The key represents the property name and
      * the value defines the fully qualified class name. The property name must start with an uppercase letter.
+     * The engine is shared by all apps, therefore, the classes are loaded by the app's classloader and not by Java.type.
      */
     public static Object create(ScriptEngine engine, AppContext ctx, DynamicClassloader classloader, File file, Properties properties) throws IOException, ScriptException {
         File jarFile = new File(file.getParentFile().getAbsolutePath() + File.separator + properties.getProperty("file"));
         URL fileURL = jarFile.toURI().toURL();
         classloader.addJARFile(fileURL);
-        return engine.eval(getJsSource(properties), ctx);
+        ScriptObjectMirror factory = (ScriptObjectMirror) engine.eval(getJsSource(properties), ctx);
+        Function<String, Object> type = name -> {
+            try {
+                return StaticClass.forClass(classloader.loadClass(name));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(name + " not found in " + jarFile.getName(), e);
+            }
+        };
+        return factory.call(null, type);
     }
 
 
@@ -46,9 +58,9 @@ public class NativeJavaModuleObject {
         String items = "";
         for (String k : properties.stringPropertyNames()) {
             if(Character.isUpperCase(k.codePointAt(0))) {
-                items += "get " + k + "(){ return Java.type(\"" + properties.getProperty(k) + "\")},";
+                items += "get " + k + "(){ return type(\"" + properties.getProperty(k) + "\")},";
             }
         }
-        return "(function () {\nvar exports = {" + items + "};\nreturn exports;\n}());";
+        return "(function (type) {\nvar exports = {" + items + "};\nreturn exports;\n});";
     }
 }
@@ -72,6 +72,7 @@ public class LibResource extends LoggerProvidingResource {
 		try {
 			deleteLib(); // throws IOException if not successful (e.g. no
 							// write-access to javascript file)
+			manager.invalidateLibrary(name);
 			delete();
 			request.respond(CoAP.ResponseCode.DELETED);
 		} catch (IOException e) {
@@ -112,6 +113,7 @@ public class LibResource extends LoggerProvidingResource {
 			// update
 			String code = request.getRequestText();
 			storeLib(code);
+			manager.invalidateLibrary(name);
 
 			// restart all instances
 			manager.restartAppsByLibraryName(name);
@@ -16,14 +16,26 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.plugnplay;
 
+import java.util.Collections;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import org.eclipse.californium.actinium.AppManager;
+import org.eclipse.californium.actinium.RepresentationCache;
 import org.eclipse.californium.actinium.cfg.AbstractConfig.ConfigChangeSet;
 import org.eclipse.californium.actinium.cfg.AppConfig;
 import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
 import org.slf4j.Logger;
@@ -41,6 +53,12 @@ import org.slf4j.LoggerFactory;
  * is able to observe its AppConfig and gets notified, when the AppConfig
  * changes. E.g. the property "running" might change, triggering AbstractApp to
  * start, stop or restart itself.
+ * <p>
+ * All requests for the app and its subresources are passed to the app's
+ * bounded WorkQueue and executed by the app's thread. Californium's threads
+ * therefore never execute app code. If the queue is full, the request is
+ * rejected with 5.03 (Service Unavailable) and a Max-Age option, that tells
+ * the client when to retry.
  */
 public abstract class AbstractApp extends CoapResource implements PlugAndPlayable, Observer {
 
@@ -63,7 +81,24 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 	
 	// Recevier for all requests, which then get executed one after another by the app's thread
 	private WorkQueue requestReceiver;
-	public Set<String> dependencies;
+	// true, once the app has been started in its own thread
+	private volatile boolean threaded;
+	// the cache for responses to GET requests or null, if disabled
+	private volatile RepresentationCache cache;
+
+	// limits the rate of the notifications of the app's root resource
+	private final NotificationCoalescer coalescer = new NotificationCoalescer(() -> super.changed(), this::getObserverCount);
+	private volatile int notificationInterval; // in milliseconds
+	private final AtomicLong droppedNotifications = new AtomicLong();
+
+	// the exchanges, that handlers have detached and not yet responded to
+	private final Set<CoapExchange> detached = ConcurrentHashMap.newKeySet();
+	private volatile long detachedTimeout; // in milliseconds
+
+	// timer for apps without AppManager, e.g., in AcShell
+	private static HashedWheelTimer defaultTimer;
+	// the libraries this app requires
+	private final Set<String> dependencies = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Constructs a new AbstractApp with the specified properties. If the
@@ -78,6 +113,8 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 		this.appcfg = appcfg;
 		this.allowOutput = appcfg.getBool(AppConfig.ALLOW_OUTPUT);
 		this.allowErrorOutput = appcfg.getBool(AppConfig.ALLOW_ERROR_OUTPUT);
+		this.notificationInterval = appcfg.getInt(AppConfig.NOTIFICATION_INTERVAL);
+		this.detachedTimeout = appcfg.getInt(AppConfig.DETACHED_TIMEOUT);
 		
 		String resourceTitle = appcfg.getProperty(AppConfig.RESOURCE_TITLE);
 		if (resourceTitle!=null)
@@ -87,7 +124,7 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 		if (resourceType!=null)
 			getAttributes().addResourceType(resourceType);
 
-		this.requestReceiver = new WorkQueue(appcfg.getName()+"-ReceiverThread");
+		this.requestReceiver = createWorkQueue();
 	}
 
 	/**
@@ -98,6 +135,14 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 		return appcfg;
 	}
 
+	/**
+	 * Returns the names of the libraries this app requires.
+	 * @return a read-only view of the names
+	 */
+	public Set<String> getDependencies() {
+		return Collections.unmodifiableSet(dependencies);
+	}
+
 
 	
 	public long getStartTimestamp() {
@@ -116,7 +161,107 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 	// Make changed public (e.g. for JS)
 	@Override
 	public void changed() {
-		super.changed();
+		RepresentationCache cache = this.cache;
+		if (cache != null)
+			cache.invalidate();
+		coalescer.changed(this);
+	}
+
+	/**
+	 * Returns the minimum time between two notifications of a resource of
+	 * this app. Changes within this time are sent with one notification.
+	 * @return the interval in milliseconds, 0 if not limited
+	 */
+	public int getNotificationInterval() {
+		return notificationInterval;
+	}
+
+	/**
+	 * Returns the number of notifications, that have been dropped, since a
+	 * newer state of the resource was sent instead.
+	 * @return the number of dropped notifications
+	 */
+	public long getDroppedNotifications() {
+		return droppedNotifications.get();
+	}
+
+	void addDroppedNotifications(long count) {
+		droppedNotifications.addAndGet(count);
+	}
+
+	/**
+	 * Records, that this app requires the library with the specified name, so
+	 * that it gets restarted when the library changes.
+	 * @param libname the name of the library
+	 */
+	public void addDependency(String libname) {
+		if (dependencies.add(libname) && manager != null) {
+			manager.addDependency(this, libname);
+		}
+	}
+
+	/**
+	 * Forgets all libraries this app requires, e.g., before its code is
+	 * executed again.
+	 */
+	public void clearDependencies() {
+		dependencies.clear();
+		if (manager != null) {
+			manager.clearDependencies(this);
+		}
+	}
+
+	/**
+	 * Returns the timer for the timeouts and intervals of this app.
+	 * @return the timer of the AppManager or a default timer
+	 */
+	public HashedWheelTimer getTimer() {
+		if (manager != null) {
+			return manager.getTimer();
+		}
+		synchronized (AbstractApp.class) {
+			if (defaultTimer == null) {
+				defaultTimer = new HashedWheelTimer("AppTimer", 10, 512, 1);
+			}
+			return defaultTimer;
+		}
+	}
+
+	/**
+	 * Enables or disables caching the responses to GET requests. Cached
+	 * responses are sent without passing the request to the app, until the
+	 * app calls changed() or their Max-Age expires.
+	 * @param caching true to enable caching
+	 */
+	public void setCaching(boolean caching) {
+		if (caching != isCaching())
+			this.cache = caching ? new RepresentationCache() : null;
+	}
+
+	/**
+	 * Returns true, if the responses to GET requests are cached.
+	 * @return true, if caching is enabled
+	 */
+	public boolean isCaching() {
+		return cache != null;
+	}
+
+	/**
+	 * Returns the cache for the responses to GET requests, e.g. for its
+	 * statistics.
+	 * @return the cache or null, if disabled
+	 */
+	public RepresentationCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns true, if the delivery of requests to this app is enabled. If
+	 * disabled, cached responses must not be sent either.
+	 * @return true, if enabled
+	 */
+	public boolean isRequestDeliveryEnabled() {
+		return appcfg.getBool(AppConfig.ENABLE_REQUEST_DELIVERY);
 	}
 
 	/**
@@ -150,6 +295,21 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 		if (set.contains(AppConfig.ALLOW_ERROR_OUTPUT)) {
 			allowErrorOutput = appcfg.getBool(AppConfig.ALLOW_ERROR_OUTPUT);
 		}
+		if (set.contains(AppConfig.MAILBOX_CAPACITY)) {
+			requestReceiver.setCapacity(appcfg.getInt(AppConfig.MAILBOX_CAPACITY));
+		}
+		if (set.contains(AppConfig.SUSPEND_SYNC_REQUESTS)) {
+			requestReceiver.setTaskExecutor(getTaskExecutor());
+		}
+		if (set.contains(AppConfig.CLIENT_ENDPOINT)) {
+			requestReceiver.setClientEndpoint(getClientEndpoint());
+		}
+		if (set.contains(AppConfig.NOTIFICATION_INTERVAL)) {
+			notificationInterval = appcfg.getInt(AppConfig.NOTIFICATION_INTERVAL);
+		}
+		if (set.contains(AppConfig.DETACHED_TIMEOUT)) {
+			detachedTimeout = appcfg.getInt(AppConfig.DETACHED_TIMEOUT);
+		}
 	}
 
 	/**
@@ -165,8 +325,9 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 			stopTimestamp = 0;
 			startTimestamp = System.currentTimeMillis();
 			started = true;
+			threaded = true;
 			if (requestReceiver != null && !requestReceiver.isRunning()) {
-				requestReceiver = new WorkQueue(appcfg.getName()+"-ReceiverThread");
+				requestReceiver = createWorkQueue();
 			}
 			appcfg.setPropertyAndNotify(
 					AppConfig.RUNNING, AppConfig.START);
@@ -188,7 +349,9 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 			logger.info("App {} shutdown", getName());
 			started = false;
 			requestReceiver.stop();
+			cache = null;
 			removeSubresources();
+			abandonDetached();
 			shutdownImpl();
 			
 			stopTimestamp = System.currentTimeMillis();
@@ -207,12 +370,82 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 		logger.info("App {} restart", getName());
 
 		requestReceiver.stop();
+		cache = null;
 		removeSubresources();
+		abandonDetached();
 		startTimestamp = System.currentTimeMillis();
 		restartImpl();
 		stopTimestamp = 0;
 	}
 	
+	/**
+	 * Stops receiving requests and removes all subresources like shutdown(),
+	 * but leaves the AppConfig untouched. This is used for apps, that are not
+	 * known to the AppConfig, e.g. the replicas of an app.
+	 */
+	protected synchronized void stopReceiving() {
+		started = false;
+		requestReceiver.stop();
+		removeSubresources();
+		abandonDetached();
+	}
+	
+	/**
+	 * Wraps the exchange, that is passed to a handler, so that it can be
+	 * tracked, if the handler detaches it. Responding removes it from the
+	 * detached exchanges.
+	 * @param exchange the exchange
+	 * @return the wrapped exchange
+	 */
+	public CoapExchange wrapDetachable(CoapExchange exchange) {
+		return new DetachableExchange(exchange);
+	}
+
+	/**
+	 * Tracks an exchange, that a handler has detached without responding. It
+	 * is answered with 5.03, if it is still not answered after the
+	 * detached_timeout or when the app stops.
+	 * @param exchange the exchange returned by wrapDetachable
+	 */
+	public void addDetached(final CoapExchange exchange) {
+		detached.add(exchange);
+		if (exchange.advanced().getResponse() != null) {
+			detached.remove(exchange);
+			return;
+		}
+		long timeout = detachedTimeout;
+		if (timeout > 0) {
+			getTimer().schedule(() -> {
+				if (!detached.contains(exchange)) {
+					return;
+				}
+				// like the handler's responses, on the app's thread
+				if (hasReceiverThread() && requestReceiver.isRunning()) {
+					requestReceiver.deliver(() -> abandonDetached(exchange, "Timeout of detached request"));
+				} else {
+					abandonDetached(exchange, "Timeout of detached request");
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Answers all detached exchanges with 5.03, because the app stops and
+	 * cannot respond anymore.
+	 */
+	private void abandonDetached() {
+		for (CoapExchange exchange : detached) {
+			abandonDetached(exchange, "App stopped");
+		}
+	}
+
+	private void abandonDetached(CoapExchange exchange, String reason) {
+		if (detached.remove(exchange) && exchange.advanced().getResponse() == null) {
+			logger.info("App {} did not respond to detached request for {}: {}", getName(), exchange.advanced().getRequest().getURI(), reason);
+			exchange.respond(ResponseCode.SERVICE_UNAVAILABLE, reason);
+		}
+	}
+
 	/**
 	 * Removes all subresources
 	 */
@@ -221,13 +454,106 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 			delete(res);
 	}
 	
+	/**
+	 * Creates the queue for the requests and runnables of this app.
+	 * @return the queue
+	 */
+	private WorkQueue createWorkQueue() {
+		WorkQueue queue = new WorkQueue(appcfg.getName()+"-ReceiverThread", appcfg.getInt(AppConfig.MAILBOX_CAPACITY));
+		queue.setTaskExecutor(getTaskExecutor());
+		queue.setClientEndpoint(getClientEndpoint());
+		return queue;
+	}
+
+	/**
+	 * Returns the selector of the endpoint for outbound requests.
+	 * @return the selector or null for the default endpoint
+	 */
+	private Supplier<Endpoint> getClientEndpoint() {
+		if (manager != null) {
+			return manager.getClientEndpoints().getSelector(appcfg.getInt(AppConfig.CLIENT_ENDPOINT));
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the executor for suspendable tasks, if synchronous requests
+	 * shall only suspend the handler, that sent them.
+	 * @return the executor or null
+	 */
+	private Executor getTaskExecutor() {
+		if (manager != null && appcfg.getBool(AppConfig.SUSPEND_SYNC_REQUESTS)) {
+			return manager.getTaskExecutor();
+		}
+		return null;
+	}
+
+	/**
+	 * Passes the request to the app's queue, unless the calling thread is
+	 * already the app's thread or the app has no thread, which then handles
+	 * the request. If caching and the delivery of requests are enabled, a
+	 * cached response is sent directly.
+	 */
+	@Override
+	public void handleRequest(Exchange exchange) {
+		RepresentationCache cache = this.cache;
+		if (cache != null && isRequestDeliveryEnabled() && cache.respond(exchange)) {
+			return;
+		}
+		if (isReceiverThread() || !hasReceiverThread()) {
+			if (cache != null && exchange.getRequest().getCode() == Code.GET) {
+				handleGET(cache.wrap(exchange));
+			} else {
+				super.handleRequest(exchange);
+			}
+		} else {
+			deliverRequestToSubResource(exchange, this);
+		}
+	}
+
 	/**
 	 * Delivers the specified request to the specified resource
 	 * @param request the request
 	 * @param resource the target resource
 	 */
 	public void deliverRequestToSubResource(CoapExchange request, CoapResource resource) {
-		requestReceiver.deliver(request, resource);
+		deliverRequestToSubResource(request.advanced(), resource);
+	}
+
+	/**
+	 * Delivers the specified exchange to the specified resource. If the app's
+	 * queue is full, the request is rejected with 5.03 (Service Unavailable).
+	 * 
+	 * @param exchange the exchange
+	 * @param resource the target resource
+	 */
+	public void deliverRequestToSubResource(Exchange exchange, Resource resource) {
+		if (!requestReceiver.deliver(exchange, resource)) {
+			logger.debug("App {} is overloaded, rejecting request", getName());
+			Response response = new Response(ResponseCode.SERVICE_UNAVAILABLE);
+			response.getOptions().setMaxAge(appcfg.getInt(AppConfig.OVERLOAD_MAX_AGE));
+			response.setPayload("App " + getName() + " is overloaded");
+			exchange.sendResponse(response);
+		}
+	}
+
+	/**
+	 * Returns true, if the calling thread is the thread, that executes the
+	 * requests of this app.
+	 * @return true, if the calling thread is the app's thread
+	 */
+	public boolean isReceiverThread() {
+		return requestReceiver.isWorkerThread();
+	}
+
+	/**
+	 * Returns true, if a thread executes the requests of this app. Apps, whose
+	 * code is executed directly, e.g., in AcShell, have no such thread and
+	 * handle their requests in the calling thread.
+	 * @return true, if the app's queue has been started
+	 */
+	public boolean hasReceiverThread() {
+		return threaded || requestReceiver.isStarted();
 	}
 	
 	/**
@@ -288,6 +614,15 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 	protected void receiveMessages() {
 		requestReceiver.execute();
 	}
+
+	/**
+	 * Executes the specified task, e.g. the app's code, and then handles all
+	 * requests, that arrive for the app or its subresources.
+	 * @param init the task
+	 */
+	protected void receiveMessages(Runnable init) {
+		requestReceiver.execute(init);
+	}
 	
 	/**
 	 * Starts this app. Should create a new Thread for that.
@@ -314,4 +649,60 @@ public abstract class AbstractApp extends CoapResource implements PlugAndPlayabl
 	public AppManager getManager() {
 		return manager;
 	}
+
+	/**
+	 * Passes everything on to the exchange of the resource, e.g. of the
+	 * RepresentationCache, and forgets the exchange once it is answered.
+	 */
+	private class DetachableExchange extends CoapExchange {
+
+		private final CoapExchange exchange;
+
+		private DetachableExchange(CoapExchange exchange) {
+			super(exchange.advanced());
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void respond(Response response) {
+			detached.remove(this);
+			exchange.respond(response);
+		}
+
+		@Override
+		public void reject() {
+			detached.remove(this);
+			exchange.reject();
+		}
+
+		@Override
+		public void accept() {
+			exchange.accept();
+		}
+
+		@Override
+		public void setLocationPath(String path) {
+			exchange.setLocationPath(path);
+		}
+
+		@Override
+		public void setLocationQuery(String query) {
+			exchange.setLocationQuery(query);
+		}
+
+		@Override
+		public void setHandshakeMode(String handshakeMode) {
+			exchange.setHandshakeMode(handshakeMode);
+		}
+
+		@Override
+		public void setMaxAge(long age) {
+			exchange.setMaxAge(age);
+		}
+
+		@Override
+		public void setETag(byte[] tag) {
+			exchange.setETag(tag);
+		}
+	}
 }
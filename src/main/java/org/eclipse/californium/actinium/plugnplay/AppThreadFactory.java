@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AppThreadFactory creates the threads that execute the apps.
+ */
+public class AppThreadFactory implements ThreadFactory {
+
+	private final AtomicInteger counter = new AtomicInteger();
+	private final String prefix;
+
+	/**
+	 * Creates a new factory.
+	 *
+	 * @param prefix the prefix for the names of the threads
+	 */
+	public AppThreadFactory(String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		return newThread(prefix + counter.incrementAndGet(), runnable);
+	}
+
+	/**
+	 * Creates a new unstarted thread with the specified name.
+	 *
+	 * @param name the name of the thread
+	 * @param runnable the runnable to execute
+	 * @return the new thread
+	 */
+	public Thread newThread(String name, Runnable runnable) {
+		return new Thread(runnable, name);
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CodeCache manages the directory of Nashorn's persistent code cache. Nashorn
+ * stores the bytecode of compiled scripts there, keyed by a hash of their
+ * source, and loads it instead of compiling the same source again, even
+ * after a restart of the server. Changed scripts simply get new entries.
+ * <p>
+ * Nashorn never removes entries, so CodeCache limits the size of the
+ * directory and evicts the least recently written entries first.
+ */
+public class CodeCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CodeCache.class);
+
+	// the system property, that tells Nashorn where to store the code. Nashorn
+	// reads it only, when an engine with the code cache is created.
+	public static final String DIRECTORY_PROPERTY = "nashorn.persistent.code.cache";
+
+	// the Nashorn option, that enables the persistent code cache
+	public static final String OPTION = "--persistent-code-cache";
+
+	// minimum time between two trims
+	private static final long TRIM_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+	private final File directory;
+	private final long maxSize;
+	private final AtomicLong lastTrim = new AtomicLong(System.nanoTime() - TRIM_INTERVAL);
+
+	/**
+	 * Constructs a new CodeCache.
+	 *
+	 * @param directory the directory for the compiled code
+	 * @param maxSize the maximum size of the directory in bytes
+	 */
+	public CodeCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the directory for the compiled code.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the options for a Nashorn engine, that stores its compiled code
+	 * in this cache.
+	 *
+	 * @return the engine options
+	 */
+	public String[] getEngineOptions() {
+		return new String[] { OPTION, "-D" + DIRECTORY_PROPERTY + "=" + directory.getPath() };
+	}
+
+	/**
+	 * Trims the cache, unless it has been trimmed recently. Nashorn writes
+	 * new entries, whenever new code is compiled, e.g. when an app starts.
+	 */
+	public void trimIfDue() {
+		long last = lastTrim.get();
+		long now = System.nanoTime();
+		if (now - last >= TRIM_INTERVAL && lastTrim.compareAndSet(last, now)) {
+			trim();
+		}
+	}
+
+	/**
+	 * Deletes the least recently written entries, until the size of the
+	 * directory is within the limit.
+	 */
+	public synchronized void trim() {
+		List<File> files = new ArrayList<File>();
+		collectFiles(directory, files);
+		// newest first
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f2.lastModified(), f1.lastModified());
+			}
+		});
+		long size = 0;
+		int evicted = 0;
+		for (File file : files) {
+			size += file.length();
+			if (size > maxSize) {
+				if (file.delete()) {
+					evicted++;
+				} else {
+					LOG.warn("Cannot delete {} from code cache", file);
+				}
+			}
+		}
+		if (evicted > 0) {
+			LOG.info("Evicted {} of {} entries from code cache {}", evicted, files.size(), directory);
+		}
+	}
+
+	private static void collectFiles(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					collectFiles(child, files);
+				} else {
+					files.add(child);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.ExecutorsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HashedWheelTimer is a timer for a large number of timeouts with a coarse
+ * resolution, as described in "Hashed and Hierarchical Timing Wheels" by
+ * Varghese and Lauck.
+ * <p>
+ * A single ticker thread advances the wheel once per tick and hands the
+ * expired tasks over to a small pool of worker threads. The tasks are
+ * therefore supposed to be short, e.g. to deliver a runnable to the queue of an
+ * app. Scheduling and cancelling a timeout costs O(1) and never blocks, the
+ * ticker thread removes cancelled timeouts from the wheel on its next tick.
+ */
+public class HashedWheelTimer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	private static final int STARTED = 0;
+	private static final int STOPPED = 1;
+
+	// limit the work of the ticker thread per tick
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+
+	private final Queue<Entry> additions = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry> cancellations = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicLong pending = new AtomicLong();
+	private final AtomicInteger state = new AtomicInteger(STARTED);
+
+	private final Thread ticker;
+	private final ExecutorService executor;
+
+	private long tick; // only accessed by the ticker thread
+
+	/**
+	 * Creates and starts a new timer.
+	 *
+	 * @param name the name of the timer's threads. The ticker thread's name
+	 *            is followed by "#".
+	 * @param tickMillis the duration of a tick in milliseconds
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 * @param workers the number of threads that execute the expired tasks
+	 */
+	public HashedWheelTimer(String name, long tickMillis, int ticksPerWheel, int workers) {
+		this(new DaemonThreadFactory(name), new DaemonThreadFactory(name + "#"), tickMillis, ticksPerWheel, workers);
+	}
+
+	/**
+	 * Creates and starts a new timer, whose ticker and worker threads are
+	 * created by the specified factory.
+	 *
+	 * @param factory the factory of the timer's threads
+	 * @param tickMillis the duration of a tick in milliseconds
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 * @param workers the number of threads that execute the expired tasks
+	 */
+	public HashedWheelTimer(ThreadFactory factory, long tickMillis, int ticksPerWheel, int workers) {
+		this(factory, factory, tickMillis, ticksPerWheel, workers);
+	}
+
+	private HashedWheelTimer(ThreadFactory workerFactory, ThreadFactory tickerFactory, long tickMillis, int ticksPerWheel, int workers) {
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("tickMillis must be positive but is " + tickMillis);
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30] but is " + ticksPerWheel);
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.executor = ExecutorsUtil.newFixedThreadPool(Math.max(1, workers), workerFactory);
+		this.ticker = tickerFactory.newThread(new Ticker());
+		this.startTime = System.nanoTime();
+		this.ticker.start();
+	}
+
+	/**
+	 * Schedules the specified task for execution after the specified delay.
+	 *
+	 * @param task the task
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the timeout to cancel the task
+	 * @throws IllegalStateException if the timer has been stopped
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null)
+			throw new NullPointerException("task must not be null");
+		if (state.get() == STOPPED)
+			throw new IllegalStateException("timer has been stopped");
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - startTime;
+		Entry entry = new Entry(task, deadline);
+		pending.incrementAndGet();
+		additions.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Executes the specified task by a worker thread without delay.
+	 *
+	 * @param task the task
+	 * @throws RejectedExecutionException if the timer has been stopped
+	 */
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Returns the number of scheduled timeouts, that have neither expired nor
+	 * been cancelled.
+	 *
+	 * @return the number of pending timeouts
+	 */
+	public long getPendingTimeouts() {
+		return pending.get();
+	}
+
+	/**
+	 * Stops the timer. Pending timeouts are discarded.
+	 */
+	public void stop() {
+		if (state.compareAndSet(STARTED, STOPPED)) {
+			ticker.interrupt();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A handle to a scheduled task.
+	 */
+	public interface Timeout {
+
+		/**
+		 * Cancels the task, if it has not expired yet.
+		 * @return true, if the task has been cancelled by this call
+		 */
+		boolean cancel();
+
+		/**
+		 * Returns true, if the task has been cancelled.
+		 * @return true, if the task has been cancelled
+		 */
+		boolean isCancelled();
+
+		/**
+		 * Returns true, if the task has expired.
+		 * @return true, if the task has expired
+		 */
+		boolean isExpired();
+	}
+
+	/*
+	 * Advances the wheel
+	 */
+	private class Ticker implements Runnable {
+
+		public void run() {
+			while (state.get() == STARTED) {
+				long deadline = waitForNextTick();
+				if (deadline > 0) {
+					processCancellations();
+					transferAdditions();
+					wheel[(int) (tick & mask)].expire(deadline);
+					tick++;
+				}
+			}
+		}
+
+		/**
+		 * Sleeps until the next tick.
+		 * @return the current time relative to the start or -1 if stopped
+		 */
+		private long waitForNextTick() {
+			long deadline = tickNanos * (tick + 1);
+			for (;;) {
+				long current = System.nanoTime() - startTime;
+				long sleepMillis = (deadline - current + 999999) / 1000000;
+				if (sleepMillis <= 0) {
+					return current;
+				}
+				try {
+					Thread.sleep(sleepMillis);
+				} catch (InterruptedException e) {
+					if (state.get() == STOPPED) {
+						return -1;
+					}
+				}
+			}
+		}
+
+		private void transferAdditions() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				Entry entry = additions.poll();
+				if (entry == null) {
+					break;
+				}
+				if (entry.state.get() == Entry.CANCELLED) {
+					continue;
+				}
+				long calculated = entry.deadline / tickNanos;
+				entry.remainingRounds = (calculated - tick) / wheel.length;
+				// past deadlines are expired with the current tick
+				long ticks = Math.max(calculated, tick);
+				wheel[(int) (ticks & mask)].add(entry);
+			}
+		}
+
+		private void processCancellations() {
+			Entry entry;
+			while ((entry = cancellations.poll()) != null) {
+				if (entry.bucket != null) {
+					entry.bucket.remove(entry);
+				}
+			}
+		}
+	}
+
+	/*
+	 * A doubly linked list of entries, only accessed by the ticker thread.
+	 */
+	private class Bucket {
+
+		private Entry head;
+		private Entry tail;
+
+		private void add(Entry entry) {
+			entry.bucket = this;
+			if (head == null) {
+				head = tail = entry;
+			} else {
+				tail.next = entry;
+				entry.prev = tail;
+				tail = entry;
+			}
+		}
+
+		private Entry remove(Entry entry) {
+			Entry next = entry.next;
+			if (entry.prev != null) {
+				entry.prev.next = next;
+			}
+			if (entry.next != null) {
+				entry.next.prev = entry.prev;
+			}
+			if (entry == head) {
+				head = next;
+			}
+			if (entry == tail) {
+				tail = entry.prev;
+			}
+			entry.prev = null;
+			entry.next = null;
+			entry.bucket = null;
+			return next;
+		}
+
+		private void expire(long deadline) {
+			Entry entry = head;
+			while (entry != null) {
+				Entry next = entry.next;
+				if (entry.remainingRounds <= 0) {
+					next = remove(entry);
+					if (entry.deadline <= deadline) {
+						entry.expire();
+					} else {
+						// must not happen, the entry has been put into the wrong bucket
+						LOG.warn("timeout {} is not yet due in tick {}", entry.deadline, deadline);
+						add(entry);
+					}
+				} else if (entry.state.get() == Entry.CANCELLED) {
+					next = remove(entry);
+				} else {
+					entry.remainingRounds--;
+				}
+				entry = next;
+			}
+		}
+	}
+
+	private class Entry implements Timeout {
+
+		private static final int INIT = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(INIT);
+
+		// only accessed by the ticker thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Entry next;
+		private Entry prev;
+
+		private Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (state.compareAndSet(INIT, CANCELLED)) {
+				pending.decrementAndGet();
+				cancellations.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (state.compareAndSet(INIT, EXPIRED)) {
+				pending.decrementAndGet();
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					LOG.debug("timer has been stopped, task not executed");
+				}
+			}
+		}
+	}
+}
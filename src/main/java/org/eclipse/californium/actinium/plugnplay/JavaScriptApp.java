@@ -17,7 +17,6 @@
 package org.eclipse.californium.actinium.plugnplay;
 
 import jdk.internal.dynalink.beans.StaticClass;
-import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import jdk.nashorn.api.scripting.ScriptUtils;
 import jdk.nashorn.internal.objects.NativeJava;
@@ -27,12 +26,17 @@ import org.eclipse.californium.actinium.cfg.AppConfig;
 import org.eclipse.californium.actinium.cfg.AppType;
 import org.eclipse.californium.actinium.cfg.Config;
 import org.eclipse.californium.actinium.jscoap.CoapCallback;
+import org.eclipse.californium.actinium.jscoap.CoapRequest;
 import org.eclipse.californium.actinium.jscoap.JavaScriptCoapConstants;
+import org.eclipse.californium.actinium.jscoap.JavaScriptPromise;
 import org.eclipse.californium.actinium.jscoap.JavaScriptResource;
-import org.eclipse.californium.actinium.jsmodule.JavaScriptModuleObject;
+import org.eclipse.californium.actinium.jscoap.jserror.NetworkErrorException;
+import org.eclipse.californium.actinium.jscoap.jserror.TimeoutErrorException;
 import org.eclipse.californium.actinium.jsmodule.NativeJavaModuleObject;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
 
 import javax.script.Bindings;
 import javax.script.ScriptContext;
@@ -43,6 +47,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -50,11 +57,25 @@ import java.util.stream.Stream;
 
 /**
  * JavaScriptApp executes apps written in JavaScript using Rhino.
+ * <p>
+ * If the property "concurrency" of the AppConfig is N &gt; 1, the app loads
+ * its code N times, each time into a global scope of its own, that is
+ * executed by its own thread. This app is the first replica and the only one,
+ * that is attached to the server. Requests for the app and its subresources
+ * are spread round-robin over all replicas. The state of the app (variables,
+ * timers, observe relations of subresources) is per replica, so this is only
+ * useful for apps with stateless handlers. Like all apps, each replica runs in
+ * an engine of its own, unless "shared_engine" is true.
  */
 public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstants {
 
 	private static final AtomicInteger THREAD_ID = new AtomicInteger();
 
+	private static final JavaScriptApp[] NO_REPLICAS = new JavaScriptApp[0];
+
+	// runtime for apps without AppManager, e.g., in AcShell
+	private static JavaScriptRuntime defaultRuntime;
+
 	// The app's configuration
 	private AppConfig appcfg; // Note: appcfg can be null if has ben started SimpleAppServer
 	
@@ -75,40 +96,61 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 	private JSRequestHandler requestHandler;
 
 	private volatile AppContext context;
+	private JavaScriptRuntime runtime;
 	private ScriptEngine engine;
 
 	private Map<Object, Object> moduleCache;
 	private DynamicClassloader classloader;
 
+	// true, if this app is a replica of another app
+	private final boolean replica;
+	// the other replicas of this app, if concurrency is greater than 1
+	private volatile JavaScriptApp[] replicas = NO_REPLICAS;
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
 	/**
 	 * Constructs a new JavaScriptApp with the given appconfig
 	 * @param manager
 	 * @param appconfig the configuration for this app
 	 */
 	public JavaScriptApp(final AppManager manager, AppConfig appconfig) {
+		this(manager, appconfig, false);
+		appconfig.getObservable().addObserver(this);
+	}
+
+	/**
+	 * Constructs a new JavaScriptApp with the given appconfig. A replica does
+	 * not observe the appconfig, the app it belongs to starts and stops it.
+	 * @param manager
+	 * @param appconfig the configuration for this app
+	 * @param replica true, if the app is a replica of another app
+	 */
+	private JavaScriptApp(final AppManager manager, AppConfig appconfig, boolean replica) {
 		super(manager, appconfig);
 		moduleCache=new HashMap<>();
-		dependencies=new HashSet<>();
 		this.appcfg = appconfig;
+		this.replica = replica;
 		this.requestHandler = new JSRequestHandler();
-		appconfig.getObservable().addObserver(this);
 	}
 	
 	@Override
 	protected synchronized void startImpl() {
-		thread = new Thread(this, "JavaScript " + getName() + "-" + THREAD_ID.incrementAndGet());
+		if (!replica) {
+			startReplicas();
+		}
+		String name = "JavaScript " + getName() + "-" + THREAD_ID.incrementAndGet();
+		AppManager manager = getManager();
+		thread = manager != null ? manager.getThreadFactory().newThread(name, this) : new Thread(this, name);
 		thread.start();
 	}
 	
 	@Override
 	protected synchronized void restartImpl() {
+		stopReplicas();
 		if (jsaccess != null) {
 			thread.interrupt();
 			cleanup();
-
-			for (JavaScriptTimeoutTask task : jsaccess.tasks.values()) {
-				task.cancel();
-			}
+			jsaccess.cancelTasks();
 		}
 		started = false;
 		start();
@@ -116,15 +158,107 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 	
 	@Override
 	protected synchronized void shutdownImpl() {
+		stopReplicas();
 		thread.interrupt();
 		cleanup(); // call app.onunload in JavaScript
 		if (jsaccess != null) {
-			for (JavaScriptTimeoutTask task : jsaccess.tasks.values()) {
-				task.cancel();
+			jsaccess.cancelTasks();
+		}
+	}
+
+	/**
+	 * Returns the runtime with the shared engine and the compiled bootstrap
+	 * script for apps with "shared_engine".
+	 * @return the runtime of the AppManager or a default runtime
+	 */
+	private JavaScriptRuntime getRuntime() {
+		AppManager manager = getManager();
+		if (manager != null) {
+			return manager.getJavaScriptRuntime();
+		}
+		synchronized (JavaScriptApp.class) {
+			if (defaultRuntime == null) {
+				defaultRuntime = new JavaScriptRuntime();
 			}
+			return defaultRuntime;
 		}
 	}
 
+	/**
+	 * Creates and starts the replicas of this app as configured by the
+	 * property "concurrency".
+	 */
+	private void startReplicas() {
+		int concurrency = appcfg.getInt(AppConfig.CONCURRENCY);
+		if (concurrency > 1) {
+			logger.info("App {} runs in {} replicas", getName(), concurrency);
+			JavaScriptApp[] replicas = new JavaScriptApp[concurrency - 1];
+			for (int i = 0; i < replicas.length; i++) {
+				replicas[i] = new JavaScriptApp(getManager(), appcfg, true);
+				replicas[i].started = true;
+				replicas[i].startImpl();
+			}
+			this.replicas = replicas;
+		}
+	}
+
+	/**
+	 * Stops the replicas of this app.
+	 */
+	private void stopReplicas() {
+		JavaScriptApp[] replicas = this.replicas;
+		this.replicas = NO_REPLICAS;
+		for (JavaScriptApp replica : replicas) {
+			replica.stopReceiving();
+			replica.shutdownImpl();
+		}
+	}
+
+	/**
+	 * Spreads the requests round-robin over all replicas of this app. The
+	 * target resource is looked up by its path in the replica.
+	 */
+	@Override
+	public void deliverRequestToSubResource(Exchange exchange, Resource resource) {
+		JavaScriptApp[] replicas = this.replicas;
+		if (replicas.length > 0) {
+			int index = Math.floorMod(nextReplica.getAndIncrement(), replicas.length + 1);
+			if (index > 0) {
+				JavaScriptApp replica = replicas[index - 1];
+				Resource target = replica.findReplicaOf(resource, this);
+				if (target != null) {
+					replica.deliverRequestToSubResource(exchange, target);
+					return;
+				}
+				// the replica has not (yet) created this subresource
+			}
+		}
+		super.deliverRequestToSubResource(exchange, resource);
+	}
+
+	/**
+	 * Finds the subresource of this app, that has the same path as the
+	 * specified resource of the specified app.
+	 * 
+	 * @param resource the resource
+	 * @param app the app of the resource
+	 * @return the subresource of this app or null, if not found
+	 */
+	private Resource findReplicaOf(Resource resource, JavaScriptApp app) {
+		if (resource == app) {
+			return this;
+		}
+		Resource parent = resource.getParent();
+		if (parent == null) {
+			return null;
+		}
+		Resource replicaParent = findReplicaOf(parent, app);
+		if (replicaParent == null) {
+			return null;
+		}
+		return replicaParent.getChild(resource.getName());
+	}
+
 	/**
 	 * First, runs the app's JavaScript code. Second executes all incoming
 	 * requests for the app and its subresources.
@@ -136,11 +270,8 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 			String path = appcfg.getProperty(AppConfig.DIR_PATH) + appcfg.getProperty(AppConfig.APP) + "." + AppType.getAppSuffix(appcfg.getProperty(AppConfig.TYPE));
 			String code = Utils.readFile(path);
 
-			// execute code
-			execute(code);
-
-			// Start receiving requests for this app
-			super.receiveMessages();
+			// execute code, then start receiving requests for this app
+			super.receiveMessages(() -> execute(code));
 
 		} catch (Exception e) {
 			logger.error("Exception while executing [{}]", getName(), e);
@@ -155,15 +286,23 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 
 		if (code==null || code.isEmpty()) return;
 
-		dependencies.clear();
+		clearDependencies();
 		moduleCache.clear();
 		classloader = new DynamicClassloader(Thread.currentThread().getContextClassLoader());
-		engine = new NashornScriptEngineFactory().getScriptEngine(classloader);
+		JavaScriptRuntime runtime;
+		if (appcfg.getBool(AppConfig.SHARED_ENGINE)) {
+			runtime = getRuntime();
+		} else {
+			// an engine of its own, that finds the classes of native modules
+			AppManager manager = getManager();
+			runtime = new JavaScriptRuntime(manager == null ? null : manager.getCodeCache(), classloader);
+		}
+		this.runtime = runtime;
+		engine = runtime.getEngine();
 		try {
 			// initialize JavaScrip environment for the app: scope (variables)
-			AppContext context = new AppContext();
+			AppContext context = runtime.createContext();
 			this.context = context;
-			context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
 			Bindings engineScope = context.getBindings(ScriptContext.ENGINE_SCOPE);
 
 			// Add object "app" to JavaScript
@@ -174,15 +313,17 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 			engineScope.put("_super", (ISuperCall) (a, b,c) -> jsaccess.superCall(a, b, c));
 			this.jsaccess = jsaccess;
 
-			String bootstrap = Utils.readFile(JavaScriptApp.class.getResourceAsStream("/bootstrap.js"));
-			code =  bootstrap.replaceAll("//.*?\n","\n").replace('\n',' ') + "(function () {" + code + "}).apply({});";
+			// the bootstrap script is compiled only once per engine
+			code = "(function () {" + code + "}).apply({});";
 
 			// Execute code
 			if (this.context != null) {
+				runtime.bootstrap(context);
 				engine.eval(code, context);
+				runtime.trimCodeCache();
 			}
 			if (!isStarted()) {
-				jsaccess.timer.cancel();
+				jsaccess.cancelTasks();
 			}
 			
 		} catch (RuntimeException|ScriptException e) {
@@ -264,7 +405,7 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 			} else {
 				logger.debug("No cleanup function in script {} defined", getName());
 			}
-			jsaccess.timer.cancel();
+			jsaccess.cancelTasks();
 		}
 		classloader = null;
 		context=null;
@@ -285,11 +426,18 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		public Function<Object, Void> onunload = null; // "app.onunload = ..."
 
 		private HashMap<Integer, JavaScriptTimeoutTask> tasks =
-			new HashMap<Integer, JavaScriptTimeoutTask>(); // tasks and their id
-		// timer to schedule tasks
-		private Timer timer = new Timer(getName() + "-timer" + "-" + THREAD_ID.incrementAndGet(), true);
+			new HashMap<Integer, JavaScriptTimeoutTask>(); // pending tasks and their id
 		private int timernr = 1; // increasing task counter
 
+		// calls the functions of promises on the app's thread, if it has one
+		private final Executor executor = runnable -> {
+			if (hasReceiverThread()) {
+				deliveRunnable(runnable);
+			} else {
+				runnable.run();
+			}
+		};
+
 		/**
 		 * Prints to the standard output stream
 		 * @param args the objects to print
@@ -312,7 +460,7 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 					String libPath = getManager().getConfig().get(Config.APP_LIBS_PATH) + name;
 					File file = new File(libPath + ".js");
 					if (file.exists()) {
-						element = JavaScriptModuleObject.create(name, engine, context, file);
+						element = runtime.requireModule(name, file, context);
 					} else {
 						File propertiesFile = new File(libPath + "/config.cfg");
 						Properties properties = new Properties();
@@ -322,6 +470,7 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 						element = NativeJavaModuleObject.create(engine, context, classloader, propertiesFile, properties);
 					}
 					moduleCache.put(name, element);
+					addDependency(name);
 				}
 				return element;
 			} catch (IOException e) {
@@ -410,7 +559,7 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		 * @throws InterruptedException if interrupted
 		 */
 		public void sleep(long millis) throws InterruptedException {
-			Thread.sleep(millis);
+			WorkQueue.sleep(millis);
 		}
 		
 		/**
@@ -465,9 +614,9 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		public synchronized int setTimeout(Function<Object, Void> function, long millis, Object... args) {
 			if (function==null) throw new NullPointerException("app.setTimeout expects function not null");
 			int nr = timernr++;
-			JavaScriptTimeoutTask task = new JavaScriptTimeoutTask(function, args);
+			JavaScriptTimeoutTask task = new JavaScriptTimeoutTask(nr, function, 0);
 			tasks.put(nr, task);
-			timer.schedule(task, millis);
+			task.schedule(millis);
 			return nr;
 		}
 		
@@ -477,7 +626,7 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		 * @param id the task's id
 		 */
 		public synchronized void clearTimeout(int id) {
-			JavaScriptTimeoutTask task = tasks.get(id);
+			JavaScriptTimeoutTask task = tasks.remove(id);
 			if (task!=null) {
 				task.cancel();
 			}
@@ -495,10 +644,11 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		 */
 		public synchronized int setInterval(Function<Object, Void> function, long millis, Object... args) {
 			if (function==null) throw new NullPointerException("app.setInterval expects function not null");
+			if (millis<=0) throw new IllegalArgumentException("app.setInterval expects a positive period");
 			int nr = timernr++;
-			JavaScriptTimeoutTask task = new JavaScriptTimeoutTask(function, args);
+			JavaScriptTimeoutTask task = new JavaScriptTimeoutTask(nr, function, millis);
 			tasks.put(nr, task);
-			timer.scheduleAtFixedRate(task, millis, millis);
+			task.schedule(millis);
 			return nr;
 		}
 		
@@ -511,6 +661,108 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 			clearTimeout(id);
 		}
 
+		/**
+		 * Cancels all pending tasks
+		 */
+		private synchronized void cancelTasks() {
+			for (JavaScriptTimeoutTask task : tasks.values()) {
+				task.cancel();
+			}
+			tasks.clear();
+		}
+
+		/**
+		 * Removes the specified task after it has been executed
+		 * 
+		 * @param id the task's id
+		 */
+		private synchronized void removeTask(int id) {
+			tasks.remove(id);
+		}
+
+		/**
+		 * Sends a request asynchronously and returns a promise for it.
+		 * 
+		 * @param method "GET", "POST", "PUT" or "DELETE"
+		 * @param uri the URI
+		 * @return the promise
+		 * @see #fetch(String, String, Map)
+		 */
+		public JavaScriptPromise fetch(String method, String uri) {
+			return fetch(method, uri, null);
+		}
+
+		/**
+		 * Sends a request asynchronously and returns a promise for it. The
+		 * promise is fulfilled with the CoapRequest, once the response has
+		 * arrived, and rejected with a TimeoutErrorException or a
+		 * NetworkErrorException otherwise. The options may contain payload
+		 * (a string, byte[] or ByteBuffer), contentType, accept, timeout (in
+		 * milliseconds) and confirmable.
+		 * 
+		 * @param method "GET", "POST", "PUT" or "DELETE"
+		 * @param uri the URI
+		 * @param options the options or null
+		 * @return the promise
+		 */
+		public JavaScriptPromise fetch(String method, String uri, Map<String, Object> options) {
+			final CompletableFuture<Object> result = new CompletableFuture<Object>();
+			try {
+				CoapRequest request = new CoapRequest();
+				request.onload = (req, response) -> result.complete(req);
+				request.ontimeout = (req, response) -> result.completeExceptionally(new TimeoutErrorException(method + " " + uri + " timed out"));
+				request.onerror = (req, response) -> result.completeExceptionally(new NetworkErrorException(method + " " + uri + " failed"));
+				Object payload = null;
+				if (options == null) {
+					request.open(method, uri, true);
+				} else {
+					Object confirmable = options.get("confirmable");
+					request.open(method, uri, true, confirmable == null || Boolean.TRUE.equals(confirmable));
+					Object timeout = options.get("timeout");
+					if (timeout instanceof Number) {
+						request.timeout = ((Number) timeout).longValue();
+					}
+					setOption(request, "Content-Format", options.get("contentType"));
+					setOption(request, "Accept", options.get("accept"));
+					payload = options.get("payload");
+				}
+				request.send(CoapRequest.toPayload(payload));
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+			return new JavaScriptPromise(result, executor);
+		}
+
+		private void setOption(CoapRequest request, String option, Object value) {
+			if (value instanceof Number) {
+				request.setRequestHeader(option, ((Number) value).intValue());
+			} else if (value != null) {
+				request.setRequestHeader(option, value.toString());
+			}
+		}
+
+		/**
+		 * Returns a promise, that is fulfilled with an array of the values of
+		 * all specified promises, or rejected with the first error.
+		 * 
+		 * @param promises the promises
+		 * @return the new promise
+		 */
+		public JavaScriptPromise all(List<Object> promises) {
+			return JavaScriptPromise.all(promises, executor);
+		}
+
+		/**
+		 * Returns a promise, that is settled like the first of the specified
+		 * promises, that is settled.
+		 * 
+		 * @param promises the promises
+		 * @return the new promise
+		 */
+		public JavaScriptPromise race(List<Object> promises) {
+			return JavaScriptPromise.race(promises, executor);
+		}
+
 		public Object superCall(Object a, String method_name, Object[] arguments) {
 			try {
 				Object val = a.getClass().getMethod("super$" + method_name).invoke(a,arguments);
@@ -532,15 +784,57 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 	 * passed this task is executed and adds the function to the worker
 	 * queue of the app.The app's thread executes this runnable and calls
 	 * the specified function.
+	 * <p>
+	 * All apps share the timer of the AppManager. A task of app.setInterval
+	 * schedules itself again at a fixed rate each time it expires, a task of
+	 * app.setTimeout is removed from the app after it has been executed.
 	 */
 	// This class must be a inner class so that deliveRunnable() can be called.
 	// Ugly but neccessary.
-	private class JavaScriptTimeoutTask extends TimerTask {
+	private class JavaScriptTimeoutTask implements Runnable {
+		
+		private final int id; // the id for app.clearTimeout
+		private final Function<Object, Void> function; // the function
+		private final long period; // the period in milliseconds or 0 for a timeout
 		
-		private Function<Object, Void> function; // the function
+		private HashedWheelTimer.Timeout timeout; // the currently scheduled timeout
+		private volatile boolean cancelled;
+		private long next; // the next deadline in nanoseconds
 		
-		public JavaScriptTimeoutTask(Function<Object, Void> function, Object[] args) {
+		public JavaScriptTimeoutTask(int id, Function<Object, Void> function, long period) {
+			this.id = id;
 			this.function = function;
+			this.period = period;
+		}
+
+		/**
+		 * Schedules this task for the first time.
+		 * @param millis the delay in milliseconds
+		 */
+		private synchronized void schedule(long millis) {
+			next = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+			timeout = getTimer().schedule(this, millis, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Schedules this task for the next period at a fixed rate.
+		 */
+		private synchronized void reschedule() {
+			if (!cancelled) {
+				next += TimeUnit.MILLISECONDS.toNanos(period);
+				timeout = getTimer().schedule(this, next - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Cancels this task. A function that has already been added to the
+		 * app's worker queue is not called anymore.
+		 */
+		private synchronized void cancel() {
+			cancelled = true;
+			if (timeout != null) {
+				timeout.cancel();
+			}
 		}
 
 		/**
@@ -551,6 +845,12 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		 */
 		@Override
 		public void run() {
+			if (cancelled) {
+				return;
+			}
+			if (period > 0) {
+				reschedule();
+			}
 			// add function to working queue
 			deliveRunnable(new FunctionExecuter());
 		}
@@ -561,6 +861,12 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		 */
 		private class FunctionExecuter implements Runnable {
 			public void run() {
+				if (cancelled) {
+					return;
+				}
+				if (period == 0) {
+					jsaccess.removeTask(id);
+				}
 				function.apply(null);
 			}
 		}
@@ -597,6 +903,11 @@ public class JavaScriptApp extends AbstractApp implements JavaScriptCoapConstant
 		public Object getThis() {
 			return jsaccess.root;
 		}
+
+		@Override
+		public AbstractApp getApp() {
+			return JavaScriptApp.this;
+		}
 	}
 
 	@FunctionalInterface
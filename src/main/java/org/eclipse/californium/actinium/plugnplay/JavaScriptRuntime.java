@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import org.eclipse.californium.actinium.Utils;
+import org.eclipse.californium.actinium.jsmodule.JavaScriptModuleObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JavaScriptRuntime holds a Nashorn engine. By default, each JavaScript app
+ * creates a private runtime with its own classloader, e.g. to look up the
+ * classes of its native modules with Java.type. The apps with
+ * "shared_engine" share one runtime of the server instead. Each app gets its
+ * own global scope from {@link #createContext()}, so that apps do not see
+ * each other's variables.
+ * <p>
+ * The bootstrap script, that every app executes before its own code, is
+ * compiled only once per runtime. Nashorn can evaluate compiled scripts in any global of
+ * the engine, that compiled them. The same holds for JavaScript libraries:
+ * each library is compiled once per content, and every app, that requires it,
+ * evaluates the compiled library to get its own module object.
+ * <p>
+ * With a {@link CodeCache}, Nashorn additionally stores the compiled code on
+ * disk, so that unchanged apps and libraries are not compiled again after a
+ * restart of the app or the server.
+ */
+public class JavaScriptRuntime {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JavaScriptRuntime.class);
+
+	private static final String BOOTSTRAP = "/bootstrap.js";
+
+	// loads the interfaces, that are generated for extend(), and for private
+	// runtimes the classes of native modules
+	private final DynamicClassloader classloader;
+	private final ScriptEngine engine;
+	private final CompiledScript bootstrap;
+	private final CodeCache codeCache; // possibly null
+
+	// the compiled libraries by name
+	private final ConcurrentMap<String, CompiledModule> modules = new ConcurrentHashMap<String, CompiledModule>();
+
+	/**
+	 * Creates the engine without persistent code cache and compiles the
+	 * bootstrap script.
+	 *
+	 * @throws IllegalStateException if the bootstrap script cannot be compiled
+	 */
+	public JavaScriptRuntime() {
+		this(null);
+	}
+
+	/**
+	 * Creates the engine and compiles the bootstrap script.
+	 *
+	 * @param codeCache the persistent code cache or null
+	 * @throws IllegalStateException if the bootstrap script cannot be compiled
+	 */
+	public JavaScriptRuntime(CodeCache codeCache) {
+		this(codeCache, new DynamicClassloader(Thread.currentThread().getContextClassLoader()));
+	}
+
+	/**
+	 * Creates the engine with the specified classloader and compiles the
+	 * bootstrap script.
+	 *
+	 * @param codeCache the persistent code cache or null
+	 * @param classloader the classloader for Java.type
+	 * @throws IllegalStateException if the bootstrap script cannot be compiled
+	 */
+	public JavaScriptRuntime(CodeCache codeCache, DynamicClassloader classloader) {
+		long start = System.nanoTime();
+		this.codeCache = codeCache;
+		this.classloader = classloader;
+		if (codeCache != null) {
+			codeCache.trim();
+			this.engine = createEngine(codeCache.getEngineOptions(), classloader);
+		} else {
+			this.engine = new NashornScriptEngineFactory().getScriptEngine(new String[0], classloader);
+		}
+		try {
+			String source = Utils.readFile(JavaScriptRuntime.class.getResourceAsStream(BOOTSTRAP));
+			engine.put(ScriptEngine.FILENAME, BOOTSTRAP);
+			this.bootstrap = ((Compilable) engine).compile(source);
+		} catch (ScriptException e) {
+			throw new IllegalStateException("Cannot compile " + BOOTSTRAP, e);
+		}
+		LOG.debug("JavaScript runtime ready in {} ms", (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Creates an engine with a persistent code cache. Nashorn has no engine
+	 * option for the directory of the cache, its -D option sets the system
+	 * property, that Nashorn reads while the engine is created. The previous
+	 * value of the property is restored afterwards.
+	 */
+	private static ScriptEngine createEngine(String[] options, ClassLoader classloader) {
+		synchronized (CodeCache.class) {
+			String previous = System.getProperty(CodeCache.DIRECTORY_PROPERTY);
+			try {
+				return new NashornScriptEngineFactory().getScriptEngine(options, classloader);
+			} finally {
+				if (previous == null) {
+					System.clearProperty(CodeCache.DIRECTORY_PROPERTY);
+				} else {
+					System.setProperty(CodeCache.DIRECTORY_PROPERTY, previous);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the engine, that the apps of this runtime share.
+	 *
+	 * @return the engine
+	 */
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Creates a new context with its own global scope.
+	 *
+	 * @return the new context
+	 */
+	public AppContext createContext() {
+		AppContext context = new AppContext();
+		context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+		return context;
+	}
+
+	/**
+	 * Executes the compiled bootstrap script in the specified context. The
+	 * object "app" must already be defined in the context.
+	 *
+	 * @param context the context of the app
+	 * @throws ScriptException if the bootstrap script fails
+	 */
+	public void bootstrap(ScriptContext context) throws ScriptException {
+		bootstrap.eval(context);
+	}
+
+	/**
+	 * Returns a new module object of the specified library for the app with
+	 * the specified context. The library is only compiled, if it has not been
+	 * compiled before or if its content has changed.
+	 *
+	 * @param name the name of the library
+	 * @param file the file with the library's code
+	 * @param context the context of the app
+	 * @return the module object with the exported variables
+	 * @throws FileNotFoundException if the file does not exist
+	 * @throws ScriptException if the library fails
+	 */
+	public Object requireModule(String name, File file, ScriptContext context) throws FileNotFoundException, ScriptException {
+		String content = Utils.readFile(file);
+		if (content == null) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		String hash = hash(content);
+		CompiledModule module = modules.get(name);
+		if (module == null || !module.hash.equals(hash)) {
+			LOG.debug("Compiling library {}", name);
+			module = new CompiledModule(hash, JavaScriptModuleObject.compile(name, engine, content));
+			modules.put(name, module);
+		}
+		return module.script.eval(context);
+	}
+
+	/**
+	 * Removes the specified library from the compiled libraries, e.g. because
+	 * it has been updated or deleted.
+	 *
+	 * @param name the name of the library
+	 */
+	public void invalidateModule(String name) {
+		modules.remove(name);
+	}
+
+	private static String hash(String content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] bytes = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JRE must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Keeps the persistent code cache within its size limit. Should be called
+	 * after new code has been compiled.
+	 */
+	public void trimCodeCache() {
+		if (codeCache != null) {
+			codeCache.trimIfDue();
+		}
+	}
+
+	/*
+	 * A compiled library and the hash of its content
+	 */
+	private static class CompiledModule {
+
+		private final String hash;
+		private final CompiledScript script;
+
+		private CompiledModule(String hash, CompiledScript script) {
+			this.hash = hash;
+			this.script = script;
+		}
+	}
+}
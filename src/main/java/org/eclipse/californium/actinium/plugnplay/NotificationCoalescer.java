@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Matthias Kovatsch - creator and main architect
+ *    Martin Lanter - architect and initial implementation
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * NotificationCoalescer limits the rate of the notifications of a resource to
+ * its observers. The first call of changed() notifies the observers at once.
+ * Further calls within the notification interval of the app only schedule one
+ * notification at the end of the interval, which then sends the latest state
+ * of the resource. The notifications of the calls in between are dropped.
+ */
+public class NotificationCoalescer {
+
+	private final Runnable notifier;
+	private final IntSupplier observers;
+
+	private long last; // the time of the last notification in nanoseconds
+	private boolean scheduled;
+
+	/**
+	 * Creates a new coalescer.
+	 *
+	 * @param notifier notifies the observers of the resource
+	 * @param observers returns the number of observers of the resource
+	 */
+	public NotificationCoalescer(Runnable notifier, IntSupplier observers) {
+		this.notifier = notifier;
+		this.observers = observers;
+		this.last = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+	}
+
+	/**
+	 * Notifies the observers now or at the end of the notification interval
+	 * of the specified app.
+	 *
+	 * @param app the app of the resource or null to notify now
+	 */
+	public void changed(AbstractApp app) {
+		long interval = app == null ? 0 : app.getNotificationInterval();
+		if (interval <= 0) {
+			notifier.run();
+			return;
+		}
+		long delay;
+		synchronized (this) {
+			if (scheduled) {
+				app.addDroppedNotifications(observers.getAsInt());
+				return;
+			}
+			long now = System.nanoTime();
+			delay = last + TimeUnit.MILLISECONDS.toNanos(interval) - now;
+			if (delay > 0) {
+				scheduled = true;
+			} else {
+				last = now;
+			}
+		}
+		if (delay > 0) {
+			app.getTimer().schedule(this::notifyNow, delay, TimeUnit.NANOSECONDS);
+		} else {
+			notifier.run();
+		}
+	}
+
+	private void notifyNow() {
+		synchronized (this) {
+			scheduled = false;
+			last = System.nanoTime();
+		}
+		notifier.run();
+	}
+}
@@ -16,129 +16,513 @@
  ******************************************************************************/
 package org.eclipse.californium.actinium.plugnplay;
 
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
-import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.Exchange;
 import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Inspired by
  * http://www.ibm.com/developerworks/library/j-jtp0730/index.html
+ * <p>
+ * The WorkQueue is a mailbox with many producers (Californium's threads,
+ * timers, other apps) and a single consumer (the app's thread). Producers
+ * append to a lock-free queue and only wake up the consumer, they never wait
+ * for it. The consumer drains all queued tasks in one batch and executes them
+ * without holding any lock. It parks only, when the queue is empty.
+ * <p>
+ * Requests are bounded by the capacity of the queue. If the capacity is
+ * exhausted, {@link #deliver(Exchange, Resource)} refuses the request and the
+ * caller is supposed to reject it. Runnables (e.g. timer callbacks) are
+ * internal to the app and are always accepted.
+ * <p>
+ * With a task executor, the consumer only dispatches the tasks. Each task runs
+ * in a thread of the executor, but only one task at a time may run, so that
+ * the app's code is still never executed concurrently. A task, that waits in
+ * {@link #await(Future, long, TimeUnit)} or {@link #sleep(long)}, is suspended
+ * and lets the next task run, until the result arrives. Other requests of the
+ * app are therefore no longer blocked by a slow synchronous request, but they
+ * may interleave with the suspended task.
  */
 public class WorkQueue {
-	
+
+	private static final Logger LOG = LoggerFactory.getLogger(WorkQueue.class);
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// the queue, whose task the current thread executes or dispatches
+	private static final ThreadLocal<WorkQueue> CURRENT = new ThreadLocal<WorkQueue>();
+
+	private final String name;
 	private final PoolWorker thread;
-	private final LinkedList<Runnable> queue;
+	private final Queue<Runnable> queue;
 	private volatile boolean running = true;
+	// true, once a thread has been started or called to execute the queue
+	private volatile boolean started;
+
+	// the thread, that currently executes the queue
+	private volatile Thread worker;
+
+	private volatile int capacity;
+	private final AtomicInteger pendingRequests = new AtomicInteger();
+
+	// executes the tasks, if they are suspendable, otherwise null
+	private volatile Executor taskExecutor;
+	// the permit to execute a task
+	private final Semaphore permit = new Semaphore(1, true);
+	// the thread, that currently holds the permit
+	private volatile Thread owner;
+	// the threads of the running and suspended tasks
+	private final Set<Thread> taskThreads = ConcurrentHashMap.newKeySet();
+
+	// selects the endpoint for outbound requests of the tasks or null
+	private volatile Supplier<Endpoint> clientEndpoint;
+
+	// callbacks of outbound requests, that are executed together by one task
+	private final Queue<Runnable> callbacks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean callbacksQueued = new AtomicBoolean();
 
 	public WorkQueue() {
 		this(null);
 	}
-	
+
 	public WorkQueue(String name) {
-		queue = new LinkedList<Runnable>();
-		if (name==null)
-			thread = new PoolWorker();
-		else
-			thread = new PoolWorker(name);
-		//thread.start();
+		this(name, DEFAULT_CAPACITY);
+	}
+
+	public WorkQueue(String name, int capacity) {
+		queue = new ConcurrentLinkedQueue<Runnable>();
+		this.name = name==null ? "WorkQueue" : name;
+		// not a Thread, the queue is usually executed by the app's thread
+		thread = new PoolWorker();
+		setCapacity(capacity);
 	}
 
-	public void deliver(CoapExchange request, CoapResource resource) {
-		synchronized (queue) {
-			queue.addLast(new RequestDelivery(request, resource));
-			queue.notify(); // notifyAll not required
+	/**
+	 * Sets the maximum number of requests, that may wait in this queue.
+	 * @param capacity the capacity. Values smaller than 1 are ignored.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Sets the executor for suspendable tasks. If null, the consumer executes
+	 * the tasks itself and a waiting task blocks the queue.
+	 * @param taskExecutor the executor or null
+	 */
+	public void setTaskExecutor(Executor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	/**
+	 * Sets the selector of the endpoint, that the tasks of this queue use for
+	 * outbound requests. If null, they use the default endpoint.
+	 * @param clientEndpoint the selector or null
+	 */
+	public void setClientEndpoint(Supplier<Endpoint> clientEndpoint) {
+		this.clientEndpoint = clientEndpoint;
+	}
+
+	/**
+	 * Returns the endpoint for an outbound request of the task, that the
+	 * calling thread executes.
+	 * @return the endpoint or null for the default endpoint
+	 */
+	public static Endpoint getClientEndpoint() {
+		WorkQueue queue = CURRENT.get();
+		Supplier<Endpoint> selector = queue == null ? null : queue.clientEndpoint;
+		return selector == null ? null : selector.get();
+	}
+
+	/**
+	 * Returns the queue, whose task the calling thread executes.
+	 * @return the queue or null, if the thread executes no task of a queue
+	 */
+	public static WorkQueue getCurrent() {
+		return CURRENT.get();
+	}
+
+	public void deliver(CoapExchange request, Resource resource) {
+		deliver(request.advanced(), resource);
+	}
+
+	/**
+	 * Delivers the specified exchange to the queue, if the capacity allows it.
+	 *
+	 * @param exchange the exchange
+	 * @param resource the target resource
+	 * @return true, if the exchange has been queued, false, if the queue is
+	 *         full or has been stopped.
+	 */
+	public boolean deliver(Exchange exchange, Resource resource) {
+		int pending;
+		do {
+			pending = pendingRequests.get();
+			if (!running || pending >= capacity) {
+				return false;
+			}
+		} while (!pendingRequests.compareAndSet(pending, pending + 1));
+		queue.offer(new RequestDelivery(exchange, resource));
+		if (running) {
+			signal();
+		} else {
+			// raced with stop()
+			rejectPending();
 		}
+		return true;
 	}
-	
+
 	public void deliver(Runnable runnable) {
-		synchronized (queue) {
-			queue.addLast(runnable);
-			queue.notify(); // notifyAll not required
+		queue.offer(runnable);
+		signal();
+	}
+
+	/**
+	 * Delivers a callback, e.g. for the response to an outbound request.
+	 * Callbacks, that arrive while earlier ones still wait in the queue, are
+	 * executed together by the same task.
+	 * @param callback the callback
+	 */
+	public void deliverCallback(Runnable callback) {
+		callbacks.offer(callback);
+		if (callbacksQueued.compareAndSet(false, true)) {
+			deliver(this::runCallbacks);
 		}
 	}
-	
+
+	private void runCallbacks() {
+		// callbacks, that arrive from now on, queue another task
+		callbacksQueued.set(false);
+		Runnable callback;
+		while (running && (callback = callbacks.poll()) != null) {
+			runTask(callback);
+		}
+	}
+
+	/**
+	 * Wakes up the consumer, if it is parked.
+	 */
+	private void signal() {
+		Thread current = worker;
+		if (current != null) {
+			LockSupport.unpark(current);
+		}
+	}
+
 	/**
 	 * Starts the queue concurrently
 	 */
 	public void start() {
-		thread.start();
+		started = true;
+		new Thread(thread, name).start();
+	}
+
+	/**
+	 * Starts the queue concurrently with a thread of the specified factory
+	 * @param factory the factory for the thread
+	 */
+	public void start(ThreadFactory factory) {
+		started = true;
+		factory.newThread(thread).start();
 	}
-	
+
 	/**
 	 * Executes the queue with the thread, that calls this method
 	 */
 	public void execute() {
-		thread.run();
+		execute(null);
+	}
+
+	/**
+	 * Executes the specified task and then the queue in the calling thread.
+	 * The task runs before all queued tasks, e.g. to initialize the app.
+	 * @param init the task or null
+	 */
+	public void execute(Runnable init) {
+		started = true;
+		thread.run(init);
 	}
 
 	public void stop() {
-		synchronized (queue) {
-			running = false;
+		running = false;
+		signal();
+		rejectPending();
+		// wake up suspended tasks
+		for (Thread thread : taskThreads) {
 			thread.interrupt();
 		}
 	}
 
+	/**
+	 * Removes all tasks from the stopped queue. The app is gone, so don't let
+	 * the clients of pending requests wait for a timeout.
+	 */
+	private void rejectPending() {
+		Runnable r;
+		while ((r = queue.poll()) != null) {
+			if (r instanceof RequestDelivery) {
+				pendingRequests.decrementAndGet();
+				((RequestDelivery) r).reject();
+			}
+		}
+	}
+
 	public boolean isRunning() {
-		synchronized (queue) {
-			return running;
+		return running;
+	}
+
+	/**
+	 * Returns true, if a thread executes this queue or has been started to
+	 * do so. Tasks delivered to a queue, that has not been started, are only
+	 * executed once it is started.
+	 * @return true, if started
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Returns true, if the calling thread is the one executing this queue.
+	 * @return true, if the calling thread is the one executing this queue.
+	 */
+	public boolean isWorkerThread() {
+		Thread current = Thread.currentThread();
+		return worker == current || owner == current;
+	}
+
+	/**
+	 * Waits for the specified future. If the calling thread executes a
+	 * suspendable task, the task is suspended meanwhile and the queue executes
+	 * other tasks.
+	 * 
+	 * @param future the future
+	 * @param timeout the timeout. 0 to wait without timeout
+	 * @param unit the unit of the timeout
+	 * @return the result of the future
+	 * @throws InterruptedException if interrupted
+	 * @throws ExecutionException if the future failed
+	 * @throws TimeoutException if the timeout expired
+	 */
+	public static <T> T await(Future<T> future, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		WorkQueue queue = suspendCurrentTask();
+		try {
+			return timeout > 0 ? future.get(timeout, unit) : future.get();
+		} finally {
+			if (queue != null) {
+				queue.resumeCurrentTask();
+			}
 		}
 	}
 
+	/**
+	 * Sleeps for the specified time. If the calling thread executes a
+	 * suspendable task, the task is suspended meanwhile and the queue executes
+	 * other tasks.
+	 * 
+	 * @param millis the time to sleep in milliseconds
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void sleep(long millis) throws InterruptedException {
+		WorkQueue queue = suspendCurrentTask();
+		try {
+			Thread.sleep(millis);
+		} finally {
+			if (queue != null) {
+				queue.resumeCurrentTask();
+			}
+		}
+	}
+
+	/**
+	 * Releases the permit, if the calling thread executes a suspendable task.
+	 * @return the queue of the task or null
+	 */
+	private static WorkQueue suspendCurrentTask() {
+		WorkQueue queue = CURRENT.get();
+		if (queue != null && queue.owner == Thread.currentThread()) {
+			queue.owner = null;
+			queue.permit.release();
+			return queue;
+		}
+		return null;
+	}
+
+	/**
+	 * Waits for the permit to continue the suspended task.
+	 */
+	private void resumeCurrentTask() {
+		permit.acquireUninterruptibly();
+		owner = Thread.currentThread();
+	}
+
+	/**
+	 * Returns the number of requests waiting in this queue.
+	 * @return the number of requests waiting in this queue.
+	 */
+	public int getPendingRequests() {
+		return pendingRequests.get();
+	}
+
 	/*
 	 * The handler for the requests of the queue
 	 */
-	private class PoolWorker extends Thread {
-		
-		private PoolWorker() {
-			super();
+	private class PoolWorker implements Runnable {
+
+		public void run() {
+			run(null);
 		}
-		
-		private PoolWorker(String name) {
-			super(name);
+
+		private void run(Runnable init) {
+			// publish the worker before the first poll, so that no signal is lost
+			worker = Thread.currentThread();
+			CURRENT.set(WorkQueue.this);
+			try {
+				if (init != null) {
+					runTask(init);
+				}
+				while (running) {
+					if (!drain()) {
+						// wait for another task to execute
+						LockSupport.park(WorkQueue.this);
+						// an interrupt only wakes us up, stop() clears running
+						Thread.interrupted();
+					}
+				}
+			} finally {
+				CURRENT.remove();
+				worker = null;
+			}
 		}
-		
-		public void run() {
+
+		/**
+		 * Executes all queued tasks.
+		 * @return true, if at least one task has been executed
+		 */
+		private boolean drain() {
+			boolean executed = false;
 			Runnable r;
-			while (running) {
-				// wait for another task to execute
-				try {
-					synchronized (queue) {
-						if (!running) {
-							break;
-						}
-						while (queue.isEmpty()) {
-							queue.wait();
-						}
-						r = queue.removeFirst();
-						r.run();
-					}
-				} catch (InterruptedException ignored) {
+			while (running && (r = queue.poll()) != null) {
+				if (r instanceof RequestDelivery) {
+					pendingRequests.decrementAndGet();
 				}
+				executed = true;
+				Executor executor = taskExecutor;
+				if (executor == null) {
+					runTask(r);
+				} else {
+					dispatch(r, executor);
+				}
+			}
+			return executed;
+		}
+
+		/**
+		 * Waits until no other task runs and passes the task to the executor.
+		 */
+		private void dispatch(Runnable r, Executor executor) {
+			try {
+				permit.acquire();
+			} catch (InterruptedException e) {
+				// stopped
+				if (r instanceof RequestDelivery) {
+					((RequestDelivery) r).reject();
+				}
+				return;
+			}
+			try {
+				executor.execute(new SuspendableTask(r));
+			} catch (RejectedExecutionException e) {
+				permit.release();
+				LOG.warn("Task of {} rejected, executing it directly", name);
+				runTask(r);
+			}
+		}
+	}
+
+	private void runTask(Runnable r) {
+		try {
+			r.run();
+		} catch (RuntimeException e) {
+			LOG.error("Task of {} failed", name, e);
+		}
+	}
+
+	/*
+	 * Executes a task in a thread of the task executor. The task holds the
+	 * permit, except while it is suspended.
+	 */
+	private class SuspendableTask implements Runnable {
+
+		private final Runnable task;
+
+		private SuspendableTask(Runnable task) {
+			this.task = task;
+		}
+
+		public void run() {
+			Thread current = Thread.currentThread();
+			taskThreads.add(current);
+			CURRENT.set(WorkQueue.this);
+			owner = current;
+			try {
+				runTask(task);
+			} finally {
+				owner = null;
+				CURRENT.remove();
+				taskThreads.remove(current);
+				// clear an interrupt of stop(), the thread might be pooled
+				Thread.interrupted();
+				permit.release();
 			}
 		}
 	}
-	
+
 	private class RequestDelivery implements Runnable {
-		
-		private CoapExchange request;
-		private CoapResource resource;
-		
-		private RequestDelivery(CoapExchange request, CoapResource resource) {
-			this.request = request;
+
+		private Exchange exchange;
+		private Resource resource;
+
+		private RequestDelivery(Exchange exchange, Resource resource) {
+			this.exchange = exchange;
 			this.resource = resource;
 		}
-		
+
 		public void run() {
 			/*
 			 * Calls performXXX Method. If an exception occurs it must be
 			 * caught, to ensure, the thread doesn't stop.
 			 */
 			try {
-				resource.handleRequest(request.advanced());
+				resource.handleRequest(exchange);
 			} catch (Exception e) {
-				e.printStackTrace();
+				LOG.error("Request for {} failed in {}", resource.getURI(), name, e);
 			}
 		}
+
+		private void reject() {
+			exchange.sendResponse(new Response(ResponseCode.SERVICE_UNAVAILABLE));
+		}
 	}
 }
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.elements.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class AcShellTest {
+	private File script;
+	private AcShell shell;
+	private String baseURL;
+
+	@Before
+	public void setUp() throws IOException {
+		Configuration.setStandard(AcServer.initConfiguration());
+		script = File.createTempFile("acshell", ".js");
+		script.deleteOnExit();
+		try (PrintWriter writer = new PrintWriter(script, "UTF-8")) {
+			writer.println("app.root.onget = function(request) {\n" +
+					"    request.respond(2.05, 'Hello Shell');\n" +
+					"};\n" +
+					"var sub = new JavaScriptResource('sub');\n" +
+					"sub.onget = function(request) {\n" +
+					"    request.respond(2.05, 'Hello Sub');\n" +
+					"};\n" +
+					"app.root.add(sub);\n" +
+					"var promised = new JavaScriptResource('promised');\n" +
+					"promised.onget = function(request) {\n" +
+					"    return app.fetch('GET', request.getRequestOptions().getUriQueryString()).then(function(result) {\n" +
+					"        request.respond(2.05, 'Promised ' + result.responseText);\n" +
+					"    });\n" +
+					"};\n" +
+					"app.root.add(promised);");
+		}
+		shell = new AcShell(script.getPath(), "shell", 0);
+		shell.start();
+		baseURL = "coap://localhost:" + shell.getEndpoints().get(0).getAddress().getPort() + "/shell";
+
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		EndpointManager.getEndpointManager().setDefaultEndpoint(builder.build());
+	}
+
+	@After
+	public void tearDown() {
+		if (shell != null) {
+			shell.destroy();
+		}
+		EndpointManager.reset();
+	}
+
+	@Test
+	public void testRequestsAreHandledWithoutReceiverThread() throws InterruptedException {
+		shell.execute();
+		assertGet(baseURL, "Hello Shell");
+		assertGet(baseURL + "/sub", "Hello Sub");
+	}
+
+	@Test
+	public void testPromisesSettleWithoutReceiverThread() throws InterruptedException {
+		shell.execute();
+		assertGet(baseURL + "/promised?" + baseURL + "/sub", "Promised Hello Sub");
+	}
+
+	private void assertGet(String uri, String expectedPayload) throws InterruptedException {
+		Request request = Request.newGet();
+		request.setURI(uri);
+		request.send();
+		Response response = request.waitForResponse(BaseServerTest.TIMEOUT);
+		assertNotNull("response missing", response);
+		assertEquals(CoAP.ResponseCode.CONTENT, response.getCode());
+		assertEquals(expectedPayload, response.getPayloadString());
+	}
+}
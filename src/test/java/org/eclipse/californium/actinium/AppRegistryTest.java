@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import org.eclipse.californium.actinium.cfg.AppConfig;
+import org.eclipse.californium.actinium.plugnplay.AbstractApp;
+import org.eclipse.californium.actinium.plugnplay.JavaScriptApp;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AppRegistryTest {
+	private AppRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new AppRegistry();
+	}
+
+	@Test
+	public void testAdd() {
+		AbstractApp a = createApp("a", "x");
+		AbstractApp b = createApp("b", "x");
+		assertTrue(registry.add(a));
+		assertTrue(registry.add(b));
+		assertEquals(2, registry.size());
+		assertSame(a, registry.get("a"));
+		assertEquals(2, registry.getByAppName("x").size());
+		assertTrue(registry.getNames().contains("b"));
+	}
+
+	@Test
+	public void testDuplicateNameIsRejected() {
+		AbstractApp a = createApp("a", "x");
+		AbstractApp other = createApp("a", "y");
+		assertTrue(registry.add(a));
+		assertFalse(registry.add(other));
+		assertEquals(1, registry.size());
+		assertSame(a, registry.get("a"));
+		assertTrue(registry.getByAppName("y").isEmpty());
+	}
+
+	@Test
+	public void testRename() {
+		AbstractApp a = createApp("a", "x");
+		AbstractApp b = createApp("b", "x");
+		registry.add(a);
+		registry.add(b);
+		a.getConfig().setProperty(AppConfig.APP, "y");
+		registry.updateAppName(a);
+		assertEquals(Collections.singleton(b), registry.getByAppName("x"));
+		assertEquals(Collections.singleton(a), registry.getByAppName("y"));
+
+		b.getConfig().setProperty(AppConfig.APP, "y");
+		registry.updateAppName(b);
+		assertTrue(registry.getByAppName("x").isEmpty());
+		assertEquals(2, registry.getByAppName("y").size());
+	}
+
+	@Test
+	public void testRemove() {
+		AbstractApp a = createApp("a", "x");
+		registry.add(a);
+		registry.addDependency(a, "lib");
+		registry.remove(a);
+		assertEquals(0, registry.size());
+		assertTrue(registry.getByAppName("x").isEmpty());
+		assertTrue(registry.getByLibrary("lib").isEmpty());
+		// the name is free again
+		assertTrue(registry.add(createApp("a", "x")));
+	}
+
+	@Test
+	public void testDependencies() {
+		AbstractApp a = createApp("a", "x");
+		AbstractApp b = createApp("b", "x");
+		registry.add(a);
+		registry.add(b);
+		registry.addDependency(a, "lib");
+		registry.addDependency(b, "lib");
+		registry.addDependency(b, "other");
+		assertEquals(2, registry.getByLibrary("lib").size());
+
+		registry.removeDependencies(b);
+		assertEquals(Collections.singleton(a), registry.getByLibrary("lib"));
+		assertTrue(registry.getByLibrary("other").isEmpty());
+	}
+
+	@Test
+	public void testDependencyOfUnregisteredAppIsIgnored() {
+		AbstractApp a = createApp("a", "x");
+		registry.add(a);
+		// e.g., a replica with the same name
+		registry.addDependency(createApp("a", "x"), "lib");
+		assertTrue(registry.getByLibrary("lib").isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testAppDependenciesAreReadOnly() {
+		AbstractApp a = createApp("a", "x");
+		a.addDependency("lib");
+		assertEquals(Collections.singleton("lib"), a.getDependencies());
+		a.getDependencies().add("other");
+	}
+
+	private static AbstractApp createApp(String name, String appName) {
+		AppConfig config = new AppConfig();
+		config.setProperty(AppConfig.NAME, name);
+		config.setProperty(AppConfig.APP, appName);
+		return new JavaScriptApp(null, config);
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.elements.rule.ThreadsRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class CachingTest extends BaseServerTest {
+	@ClassRule
+	public static ThreadsRule cleanup = new ThreadsRule(THREADS_RULE_FILTER);
+
+	private static final String SCRIPT = "var count = 0;\n" +
+			"app.root.caching = true;\n" +
+			"app.root.onget = function(request) {\n" +
+			"    request.respond(2.05, 'root ' + (++count));\n" +
+			"};\n" +
+			"var sub = new JavaScriptResource('sub');\n" +
+			"sub.caching = true;\n" +
+			"sub.onget = function(request) {\n" +
+			"    request.respond(2.05, 'sub ' + (++count));\n" +
+			"};\n" +
+			"app.root.add(sub);";
+
+	@Test
+	public void testCachedResponses() throws Exception {
+		start("cached");
+		assertEquals("root 1", get("cached").getPayloadString());
+		assertEquals("root 1", get("cached").getPayloadString());
+		assertEquals("sub 2", get("cached/sub").getPayloadString());
+		assertEquals("sub 2", get("cached/sub").getPayloadString());
+
+		Response stats = get(baseURL + "stats");
+		assertTrue(stats.getPayloadString().contains("Cache hits: 1"));
+	}
+
+	@Test
+	public void testDisabledDeliveryBypassesCache() throws Exception {
+		start("disabled");
+		assertEquals("root 1", get("disabled").getPayloadString());
+		assertEquals("sub 2", get("disabled/sub").getPayloadString());
+
+		Request config = Request.newPost();
+		config.setURI(baseURL + "apps/instances/disabled");
+		config.setPayload("enable_request_delivery=false");
+		config.send();
+		assertEquals(CoAP.ResponseCode.CHANGED, config.waitForResponse(TIMEOUT).getCode());
+
+		assertEquals(CoAP.ResponseCode.FORBIDDEN, get("disabled").getCode());
+		assertEquals(CoAP.ResponseCode.FORBIDDEN, get("disabled/sub").getCode());
+	}
+
+	private void start(String name) throws Exception {
+		installScript(name, SCRIPT);
+		createInstance(name, name);
+		Thread.sleep(2000);
+		testCheckIfInstanceIsRunning(name);
+	}
+
+	private Response get(String path) throws InterruptedException {
+		Request request = Request.newGet();
+		request.setURI(path.startsWith("coap:") ? path : baseURL + "apps/running/" + path);
+		request.send();
+		Response response = request.waitForResponse(2000);
+		assertNotNull("response missing", response);
+		return response;
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.elements.rule.ThreadsRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class DetachTest extends BaseServerTest {
+	@ClassRule
+	public static ThreadsRule cleanup = new ThreadsRule(THREADS_RULE_FILTER);
+
+	@Test
+	public void testDetachedRequestIsAnsweredLater() throws Exception {
+		startDetaching("later", "app.setTimeout(function() { request.respond(2.05, 'later'); }, 100);");
+		Response response = get("later");
+		assertEquals(CoAP.ResponseCode.CONTENT, response.getCode());
+		assertEquals("later", response.getPayloadString());
+	}
+
+	@Test
+	public void testDetachedTimeout() throws Exception {
+		startDetaching("forgotten", "");
+		configure("forgotten", "detached_timeout=200");
+		Response response = get("forgotten");
+		assertEquals(CoAP.ResponseCode.SERVICE_UNAVAILABLE, response.getCode());
+	}
+
+	@Test
+	public void testStopAnswersDetachedRequests() throws Exception {
+		startDetaching("stopped", "");
+		Request request = Request.newGet();
+		request.setURI(baseURL + "apps/running/stopped");
+		request.send();
+		Thread.sleep(300);
+		configure("stopped", "stop");
+		Response response = request.waitForResponse(2000);
+		assertNotNull("response missing", response);
+		assertEquals(CoAP.ResponseCode.SERVICE_UNAVAILABLE, response.getCode());
+	}
+
+	private void startDetaching(String name, String later) throws Exception {
+		String script = "app.root.onget = function(request) {\n" +
+				"    request.detach();\n" +
+				"    " + later + "\n" +
+				"};";
+		installScript(name, script);
+		createInstance(name, name);
+		Thread.sleep(2000);
+		testCheckIfInstanceIsRunning(name);
+	}
+
+	private void configure(String name, String payload) throws InterruptedException {
+		Request config = Request.newPost();
+		config.setURI(baseURL + "apps/instances/" + name);
+		config.setPayload(payload);
+		config.send();
+		Response response = config.waitForResponse(TIMEOUT);
+		assertNotNull("response missing", response);
+	}
+
+	private Response get(String name) throws InterruptedException {
+		Request request = Request.newGet();
+		request.setURI(baseURL + "apps/running/" + name);
+		request.send();
+		Response response = request.waitForResponse(2000);
+		assertNotNull("response missing", response);
+		return response;
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.elements.rule.ThreadsRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+public class OverloadTest extends BaseServerTest {
+	@ClassRule
+	public static ThreadsRule cleanup = new ThreadsRule(THREADS_RULE_FILTER);
+
+	@Test
+	public void testFullMailboxIsRejected() throws Exception {
+		String script = "app.root.onget = function(request) {\n" +
+				"    java.lang.Thread.sleep(300);\n" +
+				"    request.respond(2.05, 'done');\n" +
+				"};";
+		installScript("slow", script);
+		createInstance("slow", "slow-1");
+		Thread.sleep(2000);
+		testCheckIfInstanceIsRunning("slow-1");
+
+		Request config = Request.newPost();
+		config.setURI(baseURL + "apps/instances/slow-1");
+		config.setPayload("mailbox_capacity=1\noverload_max_age=7");
+		config.send();
+		assertEquals(CoAP.ResponseCode.CHANGED, config.waitForResponse(TIMEOUT).getCode());
+
+		// one request is executed, one waits in the mailbox, the others are rejected
+		Request[] requests = new Request[4];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = Request.newGet();
+			requests[i].setURI(baseURL + "apps/running/slow-1");
+			requests[i].send();
+			Thread.sleep(20);
+		}
+		int content = 0;
+		int unavailable = 0;
+		for (Request request : requests) {
+			Response response = request.waitForResponse(2000);
+			assertNotNull("response missing", response);
+			if (response.getCode() == CoAP.ResponseCode.CONTENT) {
+				content++;
+			} else {
+				assertEquals(CoAP.ResponseCode.SERVICE_UNAVAILABLE, response.getCode());
+				assertEquals(Long.valueOf(7), response.getOptions().getMaxAge());
+				unavailable++;
+			}
+		}
+		assertEquals(2, content);
+		assertEquals(2, unavailable);
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.actinium.AcServer;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockwiseTransferTest {
+	// larger than the default MAX_RESOURCE_BODY_SIZE of 8192 bytes
+	private static final int SIZE = 20000;
+
+	private CoapServer server;
+	private String baseURL;
+	private final byte[] body = new byte[SIZE];
+	private volatile byte[] uploaded;
+
+	@Before
+	public void setUp() {
+		Configuration.setStandard(AcServer.initConfiguration());
+		for (int i = 0; i < SIZE; i++) {
+			body[i] = (byte) i;
+		}
+		Configuration configuration = new Configuration(Configuration.getStandard());
+		configuration.set(CoapConfig.MAX_RESOURCE_BODY_SIZE, 2 * SIZE);
+		server = new CoapServer();
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setConfiguration(configuration);
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.addEndpoint(builder.build());
+		server.add(new CoapResource("large") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(CoAP.ResponseCode.CONTENT, body);
+			}
+
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				uploaded = exchange.getRequestPayload();
+				exchange.respond(CoAP.ResponseCode.CHANGED, "received " + uploaded.length);
+			}
+		});
+		server.start();
+		baseURL = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/";
+
+		builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		EndpointManager.getEndpointManager().setDefaultEndpoint(builder.build());
+	}
+
+	@After
+	public void tearDown() {
+		server.destroy();
+		EndpointManager.reset();
+	}
+
+	@Test
+	public void testDownload() {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final int[] blocks = new int[1];
+		CoapRequest request = new CoapRequest();
+		request.open("GET", baseURL + "large", false);
+		request.timeout = 2000;
+		request.blocksize = 512;
+		request.ondata = (r, response) -> {
+			blocks[0]++;
+			received.write(response.getPayload(), 0, response.getPayloadSize());
+		};
+		request.send();
+		assertFalse("transfer failed", request.error);
+		assertEquals(CoAP.ResponseCode.CONTENT.value, request.status);
+		assertEquals((SIZE + 511) / 512, blocks[0]);
+		assertEquals(SIZE, request.loaded);
+		assertArrayEquals(body, received.toByteArray());
+	}
+
+	@Test
+	public void testAsyncDownload() throws InterruptedException {
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final CountDownLatch latch = new CountDownLatch(1);
+		CoapRequest request = new CoapRequest();
+		request.open("GET", baseURL + "large", true);
+		request.timeout = 2000;
+		request.ondata = (r, response) -> received.write(response.getPayload(), 0, response.getPayloadSize());
+		request.onload = (r, response) -> latch.countDown();
+		request.send();
+		assertTrue("transfer incomplete", latch.await(5, TimeUnit.SECONDS));
+		assertArrayEquals(body, received.toByteArray());
+	}
+
+	@Test
+	public void testUpload() {
+		final int[] offset = new int[1];
+		CoapRequest request = new CoapRequest();
+		request.open("POST", baseURL + "large", false);
+		request.timeout = 2000;
+		request.blocksize = 512;
+		request.sendStream(() -> {
+			if (offset[0] >= SIZE) {
+				return null;
+			}
+			// chunks, that do not align with the blocks
+			byte[] chunk = Arrays.copyOfRange(body, offset[0], Math.min(SIZE, offset[0] + 1000));
+			offset[0] += chunk.length;
+			return chunk;
+		});
+		assertFalse("transfer failed", request.error);
+		assertEquals(CoAP.ResponseCode.CHANGED.value, request.status);
+		assertEquals("received " + SIZE, request.getResponseText());
+		assertEquals(SIZE, request.loaded);
+		assertArrayEquals(body, uploaded);
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.actinium.AcServer;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.config.Configuration;
+import org.eclipse.californium.elements.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoapBatchTest {
+	private CoapServer server;
+	private String baseURL;
+
+	@Before
+	public void setUp() {
+		Configuration.setStandard(AcServer.initConfiguration());
+		Sender.setResponseCache(null);
+		server = new CoapServer();
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.addEndpoint(builder.build());
+		server.add(new CoapResource("hello") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(CoAP.ResponseCode.CONTENT, "hello");
+			}
+		});
+		server.add(new CoapResource("slow") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.respond(CoAP.ResponseCode.CONTENT, "slow");
+			}
+		});
+		server.start();
+		baseURL = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/";
+
+		builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		EndpointManager.getEndpointManager().setDefaultEndpoint(builder.build());
+	}
+
+	@After
+	public void tearDown() {
+		server.destroy();
+		EndpointManager.reset();
+	}
+
+	@Test
+	public void testAllSucceed() throws InterruptedException {
+		CoapBatch batch = send(open(10, "hello"), 3, 0);
+		assertEquals(10, batch.succeeded);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(CoapBatch.DONE, batch.results[i]);
+			assertEquals("hello", batch.requests[i].getResponseText());
+		}
+	}
+
+	@Test
+	public void testManyFailuresDoNotOverflowTheStack() throws InterruptedException {
+		// requests, that are not opened, fail while they are sent
+		CoapRequest[] requests = new CoapRequest[100000];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new CoapRequest();
+		}
+		CoapBatch batch = send(requests, 1, 0);
+		assertEquals(requests.length, batch.failed);
+	}
+
+	@Test
+	public void testDeadlineAbandonsPendingRequests() throws InterruptedException {
+		CoapBatch batch = send(open(5, "slow"), 1, 100);
+		assertEquals(0, batch.succeeded);
+		assertEquals(5, batch.timedOut);
+		assertEquals(-1, batch.latencies[4]);
+	}
+
+	private CoapRequest[] open(int count, String path) {
+		CoapRequest[] requests = new CoapRequest[count];
+		for (int i = 0; i < count; i++) {
+			requests[i] = new CoapRequest();
+			requests[i].open("GET", baseURL + path, true);
+		}
+		return requests;
+	}
+
+	private static CoapBatch send(CoapRequest[] requests, int maxInFlight, long timeout) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<CoapBatch> result = new AtomicReference<CoapBatch>();
+		CoapBatch batch = new CoapBatch(requests, Bytes.EMPTY, maxInFlight, timeout, b -> {
+			result.set(b);
+			latch.countDown();
+		});
+		batch.send();
+		assertTrue("batch not completed", latch.await(5, TimeUnit.SECONDS));
+		assertEquals(batch, result.get());
+		return batch;
+	}
+}
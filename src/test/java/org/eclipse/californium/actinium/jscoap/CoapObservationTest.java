@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.actinium.AcServer;
+import org.eclipse.californium.actinium.plugnplay.WorkQueue;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoapObservationTest {
+	private CoapServer server;
+	private CoapResource resource;
+	private String baseURL;
+	private final AtomicInteger value = new AtomicInteger();
+	private final WorkQueue queue = new WorkQueue("ObservingApp");
+	// the payloads, that the app has been notified with
+	private final List<String> payloads = new CopyOnWriteArrayList<String>();
+	private final List<Integer> codes = new CopyOnWriteArrayList<Integer>();
+	private volatile boolean onAppThread = true;
+
+	@Before
+	public void setUp() {
+		Configuration.setStandard(AcServer.initConfiguration());
+		server = new CoapServer();
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.addEndpoint(builder.build());
+		resource = new CoapResource("value") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(CoAP.ResponseCode.CONTENT, "value " + value.get());
+			}
+		};
+		resource.setObservable(true);
+		resource.setObserveType(CoAP.Type.NON);
+		server.add(resource);
+		server.start();
+		baseURL = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/";
+
+		builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		EndpointManager.getEndpointManager().setDefaultEndpoint(builder.build());
+		queue.start();
+	}
+
+	@After
+	public void tearDown() {
+		queue.stop();
+		server.destroy();
+		EndpointManager.reset();
+	}
+
+	@Test
+	public void testNotificationsOnAppThread() throws InterruptedException {
+		CoapObservation observation = observe();
+		change(observation);
+		change(observation);
+		assertTrue("notifications missing", waitFor(() -> payloads.size() == 3));
+		assertEquals(Arrays.asList("value 0", "value 1", "value 2"), payloads);
+		assertTrue("notified outside of the app's thread", onAppThread);
+		assertEquals(3, observation.getNotifications());
+		observation.cancel();
+	}
+
+	@Test
+	public void testNotificationsAreCoalescedWhenBacklogged() throws InterruptedException {
+		CoapObservation observation = observe();
+		// block the app's thread
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		queue.deliver(() -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(blocked.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++) {
+			change(observation);
+		}
+		release.countDown();
+		assertTrue("latest notification missing", waitFor(() -> payloads.contains("value 5")));
+		// only the latest of the notifications, that arrived meanwhile
+		assertEquals(Arrays.asList("value 0", "value 5"), payloads);
+		assertEquals(4, observation.getDropped());
+		observation.cancel();
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		CoapObservation observation = observe();
+		observation.cancel();
+		assertTrue(observation.isCancelled());
+		change();
+		// the next notification is rejected and ends the relation
+		assertTrue("relation not removed", waitFor(() -> resource.getObserverCount() == 0));
+		Thread.sleep(100);
+		assertEquals(Arrays.asList("value 0"), payloads);
+	}
+
+	@Test
+	public void testFinalResponseWithoutObserve() throws InterruptedException {
+		CoapObservation observation = observe();
+		resource.clearAndNotifyObserveRelations(CoAP.ResponseCode.NOT_FOUND);
+		assertTrue("final response missing", waitFor(() -> codes.size() == 2));
+		assertEquals(CoAP.ResponseCode.NOT_FOUND.value, (int) codes.get(1));
+		assertTrue(observation.isCancelled());
+		assertTrue("notified outside of the app's thread", onAppThread);
+		change();
+		Thread.sleep(100);
+		assertEquals(2, codes.size());
+	}
+
+	/**
+	 * Observes the resource from a task of the queue and waits for the first
+	 * notification.
+	 */
+	private CoapObservation observe() throws InterruptedException {
+		final AtomicReference<CoapObservation> observation = new AtomicReference<CoapObservation>();
+		queue.deliver(() -> {
+			CoapRequest request = new CoapRequest();
+			request.open("GET", baseURL + "value", true);
+			observation.set(request.observe((r, response) -> {
+				onAppThread &= queue.isWorkerThread();
+				payloads.add(response.getPayloadString());
+				codes.add(response.getCode().value);
+			}));
+		});
+		assertTrue("first notification missing", waitFor(() -> payloads.size() == 1));
+		assertFalse(observation.get().isCancelled());
+		return observation.get();
+	}
+
+	private void change() {
+		value.incrementAndGet();
+		resource.changed();
+	}
+
+	/**
+	 * Changes the resource and waits for the notification. Notifications of
+	 * changes in quick succession may have the same number and are then
+	 * ignored as reordered.
+	 */
+	private void change(CoapObservation observation) throws InterruptedException {
+		final long notifications = observation.getNotifications();
+		change();
+		assertTrue("notification missing", waitFor(() -> observation.getNotifications() > notifications));
+	}
+
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(10);
+		}
+		return condition.getAsBoolean();
+	}
+}
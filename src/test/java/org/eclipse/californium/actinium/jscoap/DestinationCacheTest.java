@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.core.coap.OptionSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class DestinationCacheTest {
+	private final DestinationCache cache = new DestinationCache(2, 60);
+
+	@Test
+	public void testScheme() throws Exception {
+		assertEquals("coap", cache.get("coap://127.0.0.1/a").getScheme());
+		assertEquals("coaps", cache.get("COAPS://127.0.0.1/a").getScheme());
+		assertEquals("coap+tcp", cache.get("coap+tcp://127.0.0.1/a").getScheme());
+	}
+
+	@Test
+	public void testOptions() throws Exception {
+		DestinationCache.Destination destination = cache.get("coaps://127.0.0.1:7000/a/b?x=1&y");
+		OptionSet options = destination.getOptions();
+		assertEquals("a/b", options.getUriPathString());
+		assertEquals("x=1&y", options.getUriQueryString());
+		assertFalse(options.hasUriHost());
+		assertEquals(7000, destination.getContext().getPeerAddress().getPort());
+		assertEquals(5684, cache.get("coaps://127.0.0.1/a").getContext().getPeerAddress().getPort());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		DestinationCache.Destination a = cache.get("coap://127.0.0.1/a");
+		assertSame(a, cache.get("coap://127.0.0.1/a"));
+		cache.get("coap://127.0.0.1/b");
+		cache.get("coap://127.0.0.1/c");
+		assertEquals(2, cache.size());
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+	private static final byte[] ETAG = {1, 2, 3, 4};
+
+	@Test
+	public void testKey() {
+		ResponseCache cache = new ResponseCache(4096);
+		Request get = get("a");
+		assertEquals(get.getURI(), cache.getKey(get));
+		Request accept = get("a");
+		accept.getOptions().setAccept(MediaTypeRegistry.APPLICATION_JSON);
+		assertNotEquals(cache.getKey(get), cache.getKey(accept));
+		Request observe = get("a");
+		observe.setObserve();
+		assertNull(cache.getKey(observe));
+		Request post = Request.newPost();
+		post.setURI("coap://127.0.0.1/a");
+		assertNull(cache.getKey(post));
+	}
+
+	@Test
+	public void testFreshResponseIsHit() {
+		ResponseCache cache = new ResponseCache(4096);
+		String key = cache.getKey(get("a"));
+		assertNull(cache.get(key));
+		Response response = content("hello", 60, null);
+		assertSame(response, cache.update(key, null, response));
+
+		ResponseCache.Entry entry = cache.get(key);
+		assertNotNull(entry);
+		assertTrue(entry.isFresh());
+		assertSame(response, entry.getResponse());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testEvictionBySize() {
+		// each entry takes about 128 bytes plus key and payload
+		ResponseCache cache = new ResponseCache(3 * 256);
+		String[] keys = new String[4];
+		for (int i = 0; i < 3; i++) {
+			keys[i] = cache.getKey(get("r" + i));
+			cache.update(keys[i], null, content(payload(60), 60, null));
+		}
+		assertEquals(3, cache.getEntries());
+		assertTrue(cache.getSize() <= 3 * 256);
+
+		// use the first entry, so that the second one is the least recently used
+		assertNotNull(cache.get(keys[0]));
+		keys[3] = cache.getKey(get("r3"));
+		cache.update(keys[3], null, content(payload(60), 60, null));
+
+		assertEquals(3, cache.getEntries());
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.getSize() <= 3 * 256);
+		assertNotNull(cache.get(keys[0]));
+		assertNull(cache.get(keys[1]));
+		assertNotNull(cache.get(keys[2]));
+		assertNotNull(cache.get(keys[3]));
+	}
+
+	@Test
+	public void testResponseLargerThanCacheIsNotCached() {
+		ResponseCache cache = new ResponseCache(256);
+		String key = cache.getKey(get("large"));
+		cache.update(key, null, content(payload(1024), 60, null));
+		assertEquals(0, cache.getEntries());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testETagRevalidation() {
+		ResponseCache cache = new ResponseCache(4096);
+		String key = cache.getKey(get("a"));
+		Response response = content("hello", 0, ETAG);
+		cache.update(key, null, response);
+
+		// stale, but kept to be revalidated with its ETag
+		ResponseCache.Entry stale = cache.get(key);
+		assertNotNull(stale);
+		assertFalse(stale.isFresh());
+		assertArrayEquals(ETAG, stale.getETag());
+
+		Response valid = new Response(CoAP.ResponseCode.VALID);
+		valid.getOptions().addETag(ETAG);
+		valid.getOptions().setMaxAge(60);
+		assertSame(response, cache.update(key, stale, valid));
+		assertEquals(1, cache.getRevalidations());
+
+		ResponseCache.Entry fresh = cache.get(key);
+		assertSame(stale, fresh);
+		assertTrue(fresh.isFresh());
+	}
+
+	@Test
+	public void testOtherETagIsNotRevalidated() {
+		ResponseCache cache = new ResponseCache(4096);
+		String key = cache.getKey(get("a"));
+		cache.update(key, null, content("hello", 0, ETAG));
+		ResponseCache.Entry stale = cache.get(key);
+
+		Response valid = new Response(CoAP.ResponseCode.VALID);
+		valid.getOptions().addETag(new byte[] {9});
+		assertSame(valid, cache.update(key, stale, valid));
+		assertEquals(0, cache.getRevalidations());
+		assertFalse(stale.isFresh());
+	}
+
+	@Test
+	public void testStaleResponseWithoutETagIsNotCached() {
+		ResponseCache cache = new ResponseCache(4096);
+		String key = cache.getKey(get("a"));
+		cache.update(key, null, content("hello", 0, null));
+		assertNull(cache.get(key));
+		assertEquals(0, cache.getEntries());
+	}
+
+	private static Request get(String path) {
+		Request request = Request.newGet();
+		request.setURI("coap://127.0.0.1/" + path);
+		return request;
+	}
+
+	private static Response content(String payload, long maxAge, byte[] etag) {
+		Response response = new Response(CoAP.ResponseCode.CONTENT);
+		response.setPayload(payload);
+		response.getOptions().setMaxAge(maxAge);
+		if (etag != null) {
+			response.getOptions().addETag(etag);
+		}
+		return response;
+	}
+
+	private static String payload(int length) {
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < length) {
+			builder.append('x');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.jscoap;
+
+import org.eclipse.californium.actinium.AcServer;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SenderTest {
+	private CoapServer server;
+	private String baseURL;
+	private final AtomicInteger received = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		Configuration.setStandard(AcServer.initConfiguration());
+		Sender.setResponseCache(null);
+		server = new CoapServer();
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		server.addEndpoint(builder.build());
+		server.add(new CoapResource("slow") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				received.incrementAndGet();
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.respond(CoAP.ResponseCode.CONTENT, "value " + exchange.getRequestOptions().getUriQueryString());
+			}
+		});
+		server.add(new CoapResource("echo") {
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.respond(CoAP.ResponseCode.CHANGED, "[" + exchange.getRequestText() + "]");
+			}
+		});
+		server.start();
+		baseURL = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/";
+
+		builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		EndpointManager.getEndpointManager().setDefaultEndpoint(builder.build());
+	}
+
+	@After
+	public void tearDown() {
+		server.destroy();
+		EndpointManager.reset();
+	}
+
+	@Test
+	public void testConcurrentGetsShareOneExchange() throws InterruptedException {
+		long coalesced = Sender.getCoalescedRequests();
+		List<String> payloads = send(Collections.nCopies(5, "slow?a"));
+		assertEquals(Collections.nCopies(5, "value a"), payloads);
+		assertEquals(1, received.get());
+		assertEquals(coalesced + 4, Sender.getCoalescedRequests());
+	}
+
+	@Test
+	public void testDifferentGetsAreSentOnTheirOwn() throws InterruptedException {
+		long coalesced = Sender.getCoalescedRequests();
+		List<String> payloads = send(Arrays.asList("slow?a", "slow?b"));
+		assertTrue(payloads.contains("value a"));
+		assertTrue(payloads.contains("value b"));
+		assertEquals(2, received.get());
+		assertEquals(coalesced, Sender.getCoalescedRequests());
+	}
+
+	@Test
+	public void testDifferentTypesAreSentOnTheirOwn() throws InterruptedException {
+		long coalesced = Sender.getCoalescedRequests();
+		List<String> payloads = send(Arrays.asList(Type.CON, Type.NON), Arrays.asList((Endpoint) null, null));
+		assertEquals(Collections.nCopies(2, "value a"), payloads);
+		assertEquals(2, received.get());
+		assertEquals(coalesced, Sender.getCoalescedRequests());
+	}
+
+	@Test
+	public void testDifferentEndpointsAreSentOnTheirOwn() throws Exception {
+		CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+		builder.setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		Endpoint endpoint = builder.build();
+		endpoint.start();
+		try {
+			long coalesced = Sender.getCoalescedRequests();
+			List<String> payloads = send(Arrays.asList(Type.CON, Type.CON), Arrays.asList(null, endpoint));
+			assertEquals(Collections.nCopies(2, "value a"), payloads);
+			assertEquals(2, received.get());
+			assertEquals(coalesced, Sender.getCoalescedRequests());
+		} finally {
+			endpoint.destroy();
+		}
+	}
+
+	@Test
+	public void testSequentialGetsAreNotShared() throws InterruptedException {
+		send(Collections.singletonList("slow?a"));
+		send(Collections.singletonList("slow?a"));
+		assertEquals(2, received.get());
+	}
+
+	@Test
+	public void testSendFromJavaScript() throws ScriptException {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		engine.put("url", baseURL + "echo");
+		String script = "var Request = Java.type('org.eclipse.californium.actinium.jscoap.CoapRequest');"
+				+ "function post(data) {"
+				+ " var req = new Request(); req.open('POST', url, false); req.send(data); return req.responseText; }"
+				+ "[post(null), post(undefined), post('text'), post(new java.lang.String('text').getBytes())].join()";
+		assertEquals("[],[],[text],[text]", engine.eval(script));
+	}
+
+	private List<String> send(List<String> paths) throws InterruptedException {
+		final List<String> payloads = new CopyOnWriteArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(paths.size());
+		for (String path : paths) {
+			CoapRequest request = new CoapRequest();
+			request.open("GET", baseURL + path, true);
+			request.timeout = 2000;
+			request.onload = (r, response) -> {
+				payloads.add(response.getPayloadString());
+				latch.countDown();
+			};
+			request.onerror = (r, response) -> latch.countDown();
+			request.ontimeout = (r, response) -> latch.countDown();
+			request.send();
+		}
+		assertTrue("responses missing", latch.await(3, TimeUnit.SECONDS));
+		assertEquals("requests failed", paths.size(), payloads.size());
+		return payloads;
+	}
+
+	private List<String> send(List<Type> types, List<Endpoint> endpoints) throws InterruptedException {
+		final List<String> payloads = new CopyOnWriteArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(types.size());
+		for (int i = 0; i < types.size(); i++) {
+			Request request = Request.newGet();
+			request.setURI(baseURL + "slow?a");
+			request.setType(types.get(i));
+			CoapRequestEvent onload = (r, response) -> {
+				payloads.add(response.getPayloadString());
+				latch.countDown();
+			};
+			CoapRequestEvent onerror = (r, response) -> latch.countDown();
+			new Sender(new CoapRequest(), request, null, onerror, onload, onerror, 2000, true, endpoints.get(i)).send();
+		}
+		assertTrue("responses missing", latch.await(3, TimeUnit.SECONDS));
+		assertEquals("requests failed", types.size(), payloads.size());
+		return payloads;
+	}
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CodeCacheTest {
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("codecache").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	@Test
+	public void testRuntimeStoresCompiledCode() throws Exception {
+		JavaScriptRuntime runtime = new JavaScriptRuntime(new CodeCache(directory, 1024 * 1024));
+		assertNull(System.getProperty(CodeCache.DIRECTORY_PROPERTY));
+		runtime.getEngine().eval("function f(x) { return x + 1; } f(1);");
+		assertTrue(size(directory) > 0);
+	}
+
+	@Test
+	public void testTrimEvictsOldestEntries() throws IOException {
+		File old = write("old", 600, 1000);
+		File young = write("young", 600, 2000);
+		CodeCache cache = new CodeCache(directory, 1000);
+		cache.trim();
+		assertFalse(old.exists());
+		assertTrue(young.exists());
+		assertEquals(600, size(directory));
+	}
+
+	private File write(String name, int length, long lastModified) throws IOException {
+		File file = new File(directory, name);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[length]);
+		}
+		assertTrue(file.setLastModified(lastModified));
+		return file;
+	}
+
+	private static long size(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				size += size(child);
+			}
+		}
+		return size;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
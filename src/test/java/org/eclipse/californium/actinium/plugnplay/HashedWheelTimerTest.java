@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import org.eclipse.californium.actinium.plugnplay.HashedWheelTimer.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		// a small wheel, so that timeouts span several rounds
+		timer = new HashedWheelTimer("TestTimer", 5, 8, 1);
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testExpire() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.schedule(latch::countDown, 100, TimeUnit.MILLISECONDS);
+		assertEquals(1, timer.getPendingTimeouts());
+		assertTrue("timeout did not expire", latch.await(1, TimeUnit.SECONDS));
+		assertTrue("timeout expired too early", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		assertEquals(0, timer.getPendingTimeouts());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		final AtomicInteger runs = new AtomicInteger();
+		Timeout timeout = timer.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertFalse("cancelled twice", timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertEquals(0, timer.getPendingTimeouts());
+		Thread.sleep(150);
+		assertEquals(0, runs.get());
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void testReschedule() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(5);
+		timer.schedule(new Runnable() {
+			public void run() {
+				latch.countDown();
+				if (latch.getCount() > 0) {
+					timer.schedule(this, 20, TimeUnit.MILLISECONDS);
+				}
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertTrue("task not rescheduled", latch.await(1, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(0, timer.getPendingTimeouts());
+	}
+
+	@Test
+	public void testCancelOneOfMany() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(99);
+		final AtomicInteger cancelledRuns = new AtomicInteger();
+		for (int i = 0; i < 100; i++) {
+			if (i == 50) {
+				timer.schedule(cancelledRuns::incrementAndGet, 30, TimeUnit.MILLISECONDS).cancel();
+			} else {
+				timer.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+			}
+		}
+		assertTrue("timeouts did not expire", latch.await(1, TimeUnit.SECONDS));
+		assertEquals(0, cancelledRuns.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testScheduleAfterStop() {
+		timer.stop();
+		timer.schedule(() -> { }, 10, TimeUnit.MILLISECONDS);
+	}
+}
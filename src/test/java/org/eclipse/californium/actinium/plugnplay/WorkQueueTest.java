@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Institute for Pervasive Computing, ETH Zurich and others.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ * 
+ * Contributors:
+ *    Yassin N. Hassan - initial implementation
+ *    Matthias Kovatsch - creator and main architect
+ ******************************************************************************/
+package org.eclipse.californium.actinium.plugnplay;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.Exchange;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WorkQueueTest {
+	private final WorkQueue queue = new WorkQueue("TestQueue", 4);
+	private final ExecutorService taskExecutor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		queue.stop();
+		taskExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testCapacity() throws InterruptedException {
+		CountingResource resource = new CountingResource(5);
+		for (int i = 0; i < 4; i++) {
+			assertTrue("request " + i + " refused", queue.deliver(newExchange(), resource));
+		}
+		assertFalse("queue accepted more requests than its capacity", queue.deliver(newExchange(), resource));
+		assertEquals(4, queue.getPendingRequests());
+
+		queue.start();
+		assertTrue(waitForPending(0));
+		assertTrue("request refused after the queue has been drained", queue.deliver(newExchange(), resource));
+		assertTrue("requests not handled", resource.handled.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRunnablesAreNotBounded() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(100);
+		for (int i = 0; i < 100; i++) {
+			queue.deliver(latch::countDown);
+		}
+		queue.start();
+		assertTrue("runnables not executed", latch.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSingleConsumerInOrder() throws InterruptedException {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		final CountDownLatch latch = new CountDownLatch(1000);
+		queue.start();
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			final int producer = p;
+			producers[p] = new Thread(() -> {
+				for (int i = 0; i < 250; i++) {
+					final int value = producer * 1000 + i;
+					queue.deliver(() -> {
+						assertTrue(queue.isWorkerThread());
+						order.add(value);
+						threads.add(Thread.currentThread());
+						latch.countDown();
+					});
+				}
+			});
+			producers[p].start();
+		}
+		assertTrue("runnables not executed", latch.await(2, TimeUnit.SECONDS));
+		for (Thread thread : threads) {
+			assertSame(threads.get(0), thread);
+		}
+		// the runnables of one producer are executed in the order of delivery
+		int[] last = new int[producers.length];
+		for (int value : order) {
+			int producer = value / 1000;
+			assertTrue(value % 1000 >= last[producer]);
+			last[producer] = value % 1000;
+		}
+	}
+
+	@Test
+	public void testCallbacksAreBatched() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger callbacks = new AtomicInteger();
+		final AtomicInteger tasks = new AtomicInteger();
+		queue.start();
+		queue.deliver(() -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		assertTrue(blocked.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			queue.deliverCallback(callbacks::incrementAndGet);
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		queue.deliver(() -> {
+			tasks.set(callbacks.get());
+			done.countDown();
+		});
+		release.countDown();
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		// all callbacks ran in the one task queued before the last runnable
+		assertEquals(10, tasks.get());
+	}
+
+	@Test
+	public void testSuspendableHandlersNeverRunConcurrently() throws InterruptedException {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final CountDownLatch handled = new CountDownLatch(4);
+		queue.setTaskExecutor(taskExecutor);
+		queue.start();
+		CoapResource resource = new CoapResource("busy") {
+			@Override
+			public void handleRequest(Exchange exchange) {
+				threads.add(Thread.currentThread());
+				try {
+					busy(active, maxActive);
+					// lets the other handlers run
+					WorkQueue.sleep(5);
+					busy(active, maxActive);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				handled.countDown();
+			}
+		};
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.deliver(newExchange(), resource));
+		}
+		assertTrue("requests not handled", handled.await(2, TimeUnit.SECONDS));
+		assertEquals(1, maxActive.get());
+		assertTrue("handlers not suspended", threads.size() > 1);
+	}
+
+	@Test
+	public void testRequestIsHandledWhileAnotherAwaits() throws InterruptedException {
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch handled = new CountDownLatch(2);
+		queue.setTaskExecutor(taskExecutor);
+		queue.start();
+		queue.deliver(newExchange(), new CoapResource("waiting") {
+			@Override
+			public void handleRequest(Exchange exchange) {
+				try {
+					events.add("waiting " + WorkQueue.await(future, 2, TimeUnit.SECONDS));
+				} catch (Exception e) {
+					events.add("waiting failed " + e);
+				}
+				handled.countDown();
+			}
+		});
+		queue.deliver(newExchange(), new CoapResource("completing") {
+			@Override
+			public void handleRequest(Exchange exchange) {
+				events.add("completing");
+				future.complete("done");
+				handled.countDown();
+			}
+		});
+		assertTrue("requests not handled", handled.await(3, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("completing", "waiting done"), events);
+	}
+
+	@Test
+	public void testStopInterruptsSuspendedTask() throws InterruptedException {
+		final CountDownLatch suspended = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		queue.setTaskExecutor(taskExecutor);
+		queue.start();
+		queue.deliver(() -> {
+			suspended.countDown();
+			try {
+				WorkQueue.await(new CompletableFuture<Void>(), 0, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			} catch (ExecutionException | TimeoutException e) {
+				// not expected
+			}
+		});
+		assertTrue(suspended.await(1, TimeUnit.SECONDS));
+		queue.stop();
+		assertTrue("suspended task not interrupted", interrupted.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStopRefusesRequests() {
+		queue.start();
+		queue.stop();
+		assertFalse(queue.isRunning());
+		assertFalse(queue.deliver(newExchange(), new CountingResource(0)));
+	}
+
+	private static void busy(AtomicInteger active, AtomicInteger maxActive) throws InterruptedException {
+		int current = active.incrementAndGet();
+		maxActive.accumulateAndGet(current, Math::max);
+		// holds the permit, other handlers must wait
+		Thread.sleep(5);
+		active.decrementAndGet();
+	}
+
+	private boolean waitForPending(int pending) throws InterruptedException {
+		for (int i = 0; i < 100 && queue.getPendingRequests() != pending; i++) {
+			Thread.sleep(10);
+		}
+		return queue.getPendingRequests() == pending;
+	}
+
+	private static Exchange newExchange() {
+		Executor executor = Runnable::run;
+		return new Exchange(Request.newGet(), null, Exchange.Origin.REMOTE, executor);
+	}
+
+	private static class CountingResource extends CoapResource {
+		private final CountDownLatch handled;
+
+		private CountingResource(int requests) {
+			super("counting");
+			handled = new CountDownLatch(requests);
+		}
+
+		@Override
+		public void handleRequest(Exchange exchange) {
+			handled.countDown();
+		}
+	}
+}